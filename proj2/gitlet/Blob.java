@@ -1,48 +1,125 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import static gitlet.Repository.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
 import static gitlet.Utils.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+/** A blob is the content of one file, identified by the SHA-1 of its bytes.
+ *  Blobs are handled as raw bytes or streams everywhere, never decoded to
+ *  Strings, so binary files survive add/commit/checkout unchanged.
+ */
 public class Blob {
     private String id;
-    private String content;
-    private File filePath;
+    private byte[] content;
+    /** The file this blob is read from, if it was not built from bytes */
+    private File source;
 
     /** Constructor of Blob,
-     * initialize the id, filePath from the content */
-    public Blob(String content) {
+     * initialize the id from the content */
+    public Blob(byte[] content) {
         this.content = content;
-        this.id = sha1(content);
-        this.filePath = join(BLOBS_DIR, id);
+        this.id = hash(content);
+    }
+
+    /** Constructor of Blob from text, stored as UTF-8 */
+    public Blob(String content) {
+        this(content.getBytes(UTF_8));
+    }
+
+    /** Constructor of Blob from a file.
+     * The file is hashed block by block and only read again by saveBlob,
+     * so a large file is never held in memory.
+     */
+    public Blob(File source) {
+        this(source, hash(source));
+    }
+
+    /** Constructor of Blob from a file whose id is already known,
+     * e.g. from the stat cache
+     */
+    public Blob(File source, String id) {
+        this.source = source;
+        this.id = id;
     }
 
     /** Save blob in the .gitlet/object dir
      * To Do:
-     * 1. check whether the blob exist
-     * 2. save the blob
+     * 1. check whether the blob exist, loose or packed
+     * 2. save the blob as a compressed loose object, or as chunks if it is large
      * */
     public void saveBlob() {
-        if(!filePath.exists()) {
-            writeContents(filePath, content);
+        if (isChunked()) {
+            ObjectStore.LOCAL.writeChunked(id, openSource());
+        } else {
+            ObjectStore.LOCAL.write(ObjectStore.BLOB, id, openSource());
+        }
+    }
+
+    /** Large blobs are stored as chunks, and so is any blob that starts like
+     * a chunk list, so it is never mistaken for one */
+    private boolean isChunked() {
+        if (source == null) {
+            return content.length >= ObjectStore.CHUNK_THRESHOLD
+                    || Arrays.equals(content, 0, Math.min(content.length, CHUNKED_MAGIC.length),
+                                     CHUNKED_MAGIC, 0, CHUNKED_MAGIC.length);
+        }
+        if (source.length() >= ObjectStore.CHUNK_THRESHOLD) {
+            return true;
+        }
+        try (InputStream in = openSource()) {
+            return Arrays.equals(in.readNBytes(CHUNKED_MAGIC.length), CHUNKED_MAGIC);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private InputStream openSource() {
+        if (source == null) {
+            return new ByteArrayInputStream(content);
+        }
+        try {
+            return Files.newInputStream(source.toPath());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
     /** Read the content of a blob from id
      * To Do:
-     * 1. check whether the file exist
+     * 1. check whether the blob exist, loose or packed
      * 2. return the content
      * */
-    public static String readContentFromID(String id) {
+    public static byte[] readBytesFromID(String id) {
         if (id == null) {
             return null;
         }
-        File path = join(BLOBS_DIR, id);
-        String content = null;
-        if(path.exists()) {
-            content = readContentsAsString(path);
+        return ObjectStore.LOCAL.read(ObjectStore.BLOB, id);
+    }
+
+    /** Read the content of a blob from id as UTF-8 text */
+    public static String readContentFromID(String id) {
+        byte[] bytes = readBytesFromID(id);
+        if (bytes == null) {
+            return null;
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /** Write the content of blob ID into FILE.
+     * The blob is decompressed while it is copied, one buffer at a time.
+     * */
+    public static void writeContentToFile(String id, File file) {
+        InputStream in = ObjectStore.LOCAL.open(ObjectStore.BLOB, id);
+        if (in == null) {
+            throw error("Blob %s doesn't exist", id);
         }
-        return content;
+        writeContents(file, in);
     }
 
     public String getId() {
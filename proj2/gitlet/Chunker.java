@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Cuts a stream into content-defined chunks with FastCDC.
+ *
+ *  A gear hash is rolled over the bytes and a chunk ends where the hash has
+ *  a run of zero bits under a mask. The cut points depend only on the
+ *  bytes near them, so an edit in the middle of a large file moves the
+ *  boundaries of one or two chunks and every other chunk stays the same,
+ *  with the same id. Chunks are between MIN_SIZE and MAX_SIZE bytes, about
+ *  AVG_SIZE on average: a stricter mask is used before AVG_SIZE and a
+ *  looser one after it, which keeps the sizes close to the average.
+ */
+public class Chunker {
+    public static final int MIN_SIZE = 2 << 10;
+    public static final int AVG_SIZE = 8 << 10;
+    public static final int MAX_SIZE = 64 << 10;
+    /** 15 and 11 bits spread over the hash, from the FastCDC paper */
+    private static final long MASK_S = 0x0000d9f003530000L;
+    private static final long MASK_L = 0x0000d90003530000L;
+    /** Random values for every byte. They fix where chunks are cut, so
+     *  they must never change: they come from a fixed seed. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = 0x676974206c6574L;
+        for (int i = 0; i < GEAR.length; i++) {
+            /* splitmix64 */
+            seed += 0x9E3779B97F4A7C15L;
+            long z = seed;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[4 * MAX_SIZE];
+    private int start = 0;
+    private int end = 0;
+    /** Where the chunk last returned by next starts in buffer */
+    private int chunkStart = 0;
+    private boolean eof = false;
+
+    public Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Return the length of the chunk at the start of B[OFF, OFF + N) */
+    static int cut(byte[] b, int off, int n) {
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        int limit = Math.min(n, MAX_SIZE);
+        int normal = Math.min(limit, AVG_SIZE);
+        long fp = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            fp = (fp << 1) + GEAR[b[off + i] & 0xff];
+            if ((fp & MASK_S) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            fp = (fp << 1) + GEAR[b[off + i] & 0xff];
+            if ((fp & MASK_L) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /** Read the next chunk. Its bytes are buffer()[offset(), offset() + length)
+     *  and stay valid until the next call.
+     *  @return the length of the chunk, or -1 at the end of the stream
+     */
+    public int next() throws IOException {
+        if (end - start < MAX_SIZE && !eof) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            while (end < buffer.length) {
+                int n = in.read(buffer, end, buffer.length - end);
+                if (n < 0) {
+                    eof = true;
+                    break;
+                }
+                end += n;
+            }
+        }
+        if (start == end) {
+            return -1;
+        }
+        int length = cut(buffer, start, end - start);
+        chunkStart = start;
+        start += length;
+        return length;
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int offset() {
+        return chunkStart;
+    }
+}
@@ -0,0 +1,21 @@
+package gitlet;
+
+/** Usage: java gitlet.Client ARGS, the same ARGS as gitlet.Main.
+ *
+ *  Sends the command to the daemon of the repository in the current
+ *  working directory, if one is running, prints what it prints and exits
+ *  with its exit status. Runs the command itself otherwise, and always for
+ *  the daemon command.
+ */
+public class Client {
+    public static void main(String[] args) {
+        boolean forward = args.length > 0 && !args[0].equals("daemon")
+                && Daemon.SOCKET_FILE.exists();
+        int status = forward ? Daemon.send(args, System.out) : -1;
+        if (status < 0) {
+            Main.main(args);
+        } else {
+            System.exit(status);
+        }
+    }
+}
@@ -5,20 +5,37 @@ package gitlet;
 import jh61b.junit.In;
 
 import java.io.File;
+import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 import static gitlet.Repository.*;
 import static gitlet.Utils.*;
-import static java.lang.System.exit;
 
 /** Represents a gitlet commit object.
  *  TODO: It's a good idea to give a description here of what else this Class
  *  does at a high level.
  *
+ *  A commit is stored as header lines, a blank line and the message:
+ *      tree [treeID]
+ *      parent [first parentID]      (none for the initial commit)
+ *      parent [second parentID]     (only for merge commits)
+ *      date [milliseconds since the epoch]
+ *
+ *      [message]
+ *  and its id is the hash (see Hashing) of "commit " followed by that encoding.
+ *  Commits written by older versions are Java serialized; parse still
+ *  reads them.
+ *
  *  @author TODO
  */
 public class Commit implements Serializable {
+    /** Fixed, so commits serialized by older versions stay readable */
+    private static final long serialVersionUID = 8360755107771104939L;
+
     /**
      * List all instance variables of the Commit class here with a useful
      * comment above them describing what that variable represents and how that
@@ -27,9 +44,12 @@ public class Commit implements Serializable {
 
     /** The message of this Commit. */
     private String message;
-    /** The stored Map of this commit,
-     * key: filename value: blobID **/
+    /** The stored Map of commits written before trees existed,
+     * key: filename value: blobID. null for newer commits **/
     private TreeMap<String, String> blobMap;
+    /** The id of the root tree of this commit, see Tree.
+     * While a new commit is being built it is the tree of its parent */
+    private String treeID;
     /** Date should only be initialized by constructor */
     private Date date;
     /**
@@ -39,26 +59,46 @@ public class Commit implements Serializable {
     private String firstParentID;
     private String secondParentID;
 
+    /** filename -> blobID of every file, flattened from the tree lazily */
+    private transient TreeMap<String, String> files;
+    /** The id this commit is cached under in CommitCache, or null */
+    private transient String cachedAs;
+    /** Files added (filename -> blobID) or removed (filename -> null) on top
+     * of treeID, not yet written into a tree. null once the tree is built */
+    private transient TreeMap<String, String> changes;
+    /** Trees built by getCommitID, saved by saveCommit */
+    private transient List<Tree> newTrees;
+
     public Commit() {
         message = null;
         // 存疑，HashMap 的空对象应该怎么做
-        blobMap = new TreeMap<>();
+        blobMap = null;
+        treeID = null;
+        changes = new TreeMap<>();
         date = new Date(0);
         firstParentID = null;
         secondParentID = null;
     }
 
     /** Copy constructor casting on the parent
-     * TODO: check whether TreeMap should be copy
-     * @param parent
+     * The parent's tree is shared, only the changed files are recorded.
+     * The parent is given by id: hashing a loaded commit again doesn't
+     * give back the id of commits written by older versions
+     * @param parentID
      * @param d
      * @param m
      */
-    public Commit(Commit parent, Date d, String m) {
-        blobMap = new TreeMap<>(parent.blobMap);
+    public Commit(String parentID, Date d, String m) {
+        Commit parent = getCommitFromID(parentID);
+        treeID = parent.treeID;
+        changes = new TreeMap<>();
+        if (treeID == null) {
+            /* parent was written before trees existed */
+            changes.putAll(parent.getBlobMap());
+        }
         message = m;
         date = d;
-        firstParentID = parent.getCommitID();
+        firstParentID = parentID;
         secondParentID = null;
     }
 
@@ -68,10 +108,24 @@ public class Commit implements Serializable {
         return newCommit;
     }
 
-    /** Only used when everything is done except for storing the commit */
+    /** Only used when everything is done except for storing the commit
+     * The commit is hashed with the id of its tree, not with its file list */
     public String getCommitID() {
-        var bytes = serialize(this);
-        return sha1(bytes);
+        buildTree();
+        return hash("commit ", encode());
+    }
+
+    /** Write the pending changes into new trees on top of treeID.
+     * Only the trees on the paths of the changed files are rebuilt */
+    private void buildTree() {
+        if (changes == null) {
+            return;
+        }
+        if (newTrees == null) {
+            newTrees = new ArrayList<>();
+        }
+        treeID = Tree.update(ObjectStore.LOCAL, treeID, changes, newTrees);
+        changes = null;
     }
 
     /** save a commit as an object with the given commitID
@@ -79,12 +133,17 @@ public class Commit implements Serializable {
      * This method forces user to use and save getCommitID()
      */
     public void saveCommit(String commitID) {
-        File saveDir = join(COMMITS_DIR, commitID.substring(0,2));
-        File savePath = join(saveDir, commitID);
-        if (!saveDir.exists()) {
-            saveDir.mkdir();
+        buildTree();
+        if (newTrees != null) {
+            for (Tree t : newTrees) {
+                t.save(ObjectStore.LOCAL);
+            }
+            newTrees = null;
         }
-        writeObject(savePath, this);
+        ObjectStore.LOCAL.write(ObjectStore.COMMIT, commitID, encode());
+        CommitIndex.LOCAL.add(commitID);
+        CommitGraph.LOCAL.add(commitID, firstParentID, secondParentID);
+        MessageIndex.LOCAL.add(commitID, message);
     }
 
     /** Check whether the commit is created from merge command
@@ -104,88 +163,158 @@ public class Commit implements Serializable {
         if(commitID == null){
             return null;
         }
-        File commitDir = join(COMMITS_DIR, commitID.substring(0,2));
-        if(!commitDir.exists()) {
-            message("No commit with that id exists.");
-            exit(0);
+        /* commits that were loaded before are served from the cache; an
+         * abbreviated id is resolved first, so it doesn't count as a miss */
+        boolean full = commitID.length() == Hashing.local().idLength();
+        String id = full ? commitID : resolveID(commitID);
+        Commit cached = CommitCache.get(id);
+        if (cached != null) {
+            return cached;
         }
-        else {
-            List<String> commitIDList = plainFilenamesIn(commitDir);
-            int len = commitID.length();
-            for (String id : commitIDList) {
-                if (id.substring(0, len).equals(commitID)) {
-                    File commitPath = join(commitDir, id);
-                    return readObject(commitPath, Commit.class);
-                }
-            }
+        if (full) {
+            id = resolveID(commitID);
+        }
+        byte[] bytes = ObjectStore.LOCAL.read(ObjectStore.COMMIT, id);
+        Commit c = parse(bytes);
+        c.cachedAs = id;
+        CommitCache.put(id, c, bytes.length);
+        return c;
+    }
+
+    /** Get the full id of the commit whose id is or starts with commitID
+     *  If the given ID doesn't exist, exit program
+     * @param commitID
+     * @return full commit ID
+     */
+    public static String resolveID(String commitID) {
+        /* full and abbreviated ids are resolved with the sorted commit index */
+        String id = CommitIndex.LOCAL.resolve(commitID);
+        if (id == null) {
             message("No commit with that id exists.");
             exit(0);
         }
-        return null;
+        return id;
     }
 
-    public void printLog(String id) {
-        message("===");
-        message("commit " + id);
-        if(isFromMerge()) {
-            System.out.println("Merge " + getFirstParentID().substring(0, 7)
-                    + " " + getSecondParentID().substring(0, 7));
+    /* ENCODING */
+
+    private static final byte[] TREE = "tree ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PARENT = "parent ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DATE = "date ".getBytes(StandardCharsets.US_ASCII);
+    /** First bytes of a Java serialization stream */
+    private static final int SERIALIZED_MAGIC = 0xACED;
+
+    /** Encode this commit as described at the top of this class
+     * warning: the tree should be built already */
+    public byte[] encode() {
+        StringBuilder sb = new StringBuilder(128 + message.length());
+        sb.append("tree ").append(treeID).append('\n');
+        if (firstParentID != null) {
+            sb.append("parent ").append(firstParentID).append('\n');
+        }
+        if (secondParentID != null) {
+            sb.append("parent ").append(secondParentID).append('\n');
         }
-        message("Date: "+ getFormatDate());
-        message(getMessage());
-        System.out.println();
+        sb.append("date ").append(date.getTime()).append('\n');
+        sb.append('\n').append(message);
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
     }
 
-    public static HashMap<String, Integer> getInheritedMap(String commitID) {
-        class CommitNode {
-            public Commit commit;
-            public int height;
-
-            public CommitNode(Commit c, int h) {
-                this.commit = c;
-                this.height = h;
-            }
+    /** Decode a commit from the bytes it is stored as
+     * The header is scanned in place, only the ids and the message
+     * become Strings */
+    public static Commit parse(byte[] bytes) {
+        if (bytes.length >= 2
+                && ((bytes[0] & 0xff) << 8 | (bytes[1] & 0xff)) == SERIALIZED_MAGIC) {
+            return deserialize(bytes, Commit.class);
         }
-
-        Deque<CommitNode> deque =  new ArrayDeque<>();
-        HashMap<String, Integer> map = new HashMap<>();
-        CommitNode first = new CommitNode(getCommitFromID(commitID), 0);
-        deque.add(first);
-        map.put(commitID, 0);
-
-
-        while (!deque.isEmpty()) {
-            CommitNode n = deque.poll();
-            Commit c = n.commit;
-            int height = n.height;
-            if (c.firstParentID != null) {
-                Commit parent = getCommitFromID(c.firstParentID);
-                CommitNode parentNode = new CommitNode(parent, height + 1);
-                deque.add(parentNode);
-                /* check whether the parent visited before */
-                if (map.containsKey(c.firstParentID) &&
-                        map.get(c.firstParentID) < height + 1) {
-                    // nothing to do
-                }
-                else {
-                    map.put(c.firstParentID, height + 1);
-                }
+        Commit c = new Commit();
+        c.changes = null;
+        int pos = 0;
+        while (pos < bytes.length && bytes[pos] != '\n') {
+            int end = pos;
+            while (end < bytes.length && bytes[end] != '\n') {
+                end += 1;
             }
-            if (c.secondParentID != null) {
-                Commit parent = getCommitFromID(c.secondParentID);
-                CommitNode parentNode = new CommitNode(parent, height + 1);
-                deque.add(parentNode);
-                /* check whether the parent visited before */
-                if (map.containsKey(c.secondParentID) &&
-                        map.get(c.secondParentID) < height + 1) {
-                    // nothing to do
+            if (startsWith(bytes, pos, TREE)) {
+                c.treeID = ascii(bytes, pos + TREE.length, end);
+            } else if (startsWith(bytes, pos, PARENT)) {
+                String id = ascii(bytes, pos + PARENT.length, end);
+                if (c.firstParentID == null) {
+                    c.firstParentID = id;
+                } else {
+                    c.secondParentID = id;
                 }
-                else {
-                    map.put(c.secondParentID, height + 1);
+            } else if (startsWith(bytes, pos, DATE)) {
+                long time = 0;
+                for (int i = pos + DATE.length; i < end; i++) {
+                    time = time * 10 + (bytes[i] - '0');
                 }
+                c.date = new Date(time);
+            } else {
+                throw error("Corrupted commit");
             }
+            pos = end + 1;
+        }
+        if (c.treeID == null || pos >= bytes.length) {
+            throw error("Corrupted commit");
+        }
+        pos += 1;
+        c.message = new String(bytes, pos, bytes.length - pos, StandardCharsets.UTF_8);
+        return c;
+    }
+
+    private static boolean startsWith(byte[] bytes, int pos, byte[] prefix) {
+        if (pos + prefix.length > bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[pos + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String ascii(byte[] bytes, int start, int end) {
+        return new String(bytes, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+    /** Load the commit with the full id commitID without putting it in the
+     * cache, for walks that read every commit once like log
+     * Only the header and the message are decoded, the tree isn't read
+     * @param commitID
+     * @return
+     */
+    public static Commit peek(String commitID) {
+        Commit cached = CommitCache.get(commitID);
+        if (cached != null) {
+            return cached;
+        }
+        return parse(ObjectStore.LOCAL.read(ObjectStore.COMMIT, commitID));
+    }
+
+    /** Print the log entry of this commit to out
+     * @param id the id of this commit
+     * @param out
+     * @param oneline print only the abbreviated id and the first line of the message
+     */
+    public void printLog(String id, PrintWriter out, boolean oneline) {
+        if (oneline) {
+            int end = message.indexOf('\n');
+            out.append(id, 0, 7).append(' ')
+                    .append(end < 0 ? message : message.substring(0, end)).append('\n');
+            return;
         }
-        return map;
+        out.append("===\n");
+        out.append("commit ").append(id).append('\n');
+        if(isFromMerge()) {
+            out.append("Merge ").append(getFirstParentID(), 0, 7)
+                    .append(' ').append(getSecondParentID(), 0, 7).append('\n');
+        }
+        out.append("Date: ").append(getFormatDate()).append('\n');
+        out.append(getMessage()).append('\n');
+        out.append('\n');
     }
 
     /* FILE OPERATIONS */
@@ -196,11 +325,25 @@ public class Commit implements Serializable {
      * @param blobID
      */
     public void addFile(String filename, String blobID) {
-        blobMap.put(filename, blobID);
+        recordChange(filename, blobID);
     }
 
     public void removeFile(String filename) {
-        blobMap.remove(filename);
+        recordChange(filename, null);
+    }
+
+    private void recordChange(String filename, String blobID) {
+        if (files != null) {
+            if (blobID == null) {
+                files.remove(filename);
+            } else {
+                files.put(filename, blobID);
+            }
+        }
+        if (changes == null) {
+            changes = new TreeMap<>();
+        }
+        changes.put(filename, blobID);
     }
 
     /** This method only check if the commit has the filename
@@ -209,24 +352,98 @@ public class Commit implements Serializable {
      * @return
      */
     public boolean hasFilename(String filename) {
-        return blobMap.containsKey(filename);
+        return getBlobMap().containsKey(filename);
     }
 
 
     /* GETTERS AND SETTERS */
 
-    public TreeMap<String, String> getBlobMap() { return blobMap; }
+    /** Get filename -> blobID of every file in this commit
+     * warning: don't modify the map, use addFile and removeFile
+     * @return
+     */
+    public TreeMap<String, String> getBlobMap() {
+        if (blobMap != null) {
+            return blobMap;
+        }
+        if (files == null) {
+            files = treeID == null
+                    ? new TreeMap<>() : Tree.flatten(ObjectStore.LOCAL, treeID);
+            if (changes != null) {
+                for (Map.Entry<String, String> e : changes.entrySet()) {
+                    if (e.getValue() == null) {
+                        files.remove(e.getKey());
+                    } else {
+                        files.put(e.getKey(), e.getValue());
+                    }
+                }
+            }
+            if (cachedAs != null) {
+                /* kept as long as the commit is cached, so it counts too */
+                CommitCache.grow(cachedAs, this, sizeOf(files));
+            }
+        }
+        return files;
+    }
+
+    /** Bytes of a TreeMap entry and the headers of its two Strings */
+    private static final int FILE_ENTRY_OVERHEAD = 120;
+
+    /** Rough size in memory of a file map: a TreeMap entry and two
+     *  Strings of one byte per char for each file */
+    private static long sizeOf(TreeMap<String, String> map) {
+        long size = 0;
+        for (Map.Entry<String, String> e : map.entrySet()) {
+            size += FILE_ENTRY_OVERHEAD + e.getKey().length() + e.getValue().length();
+        }
+        return size;
+    }
+
+    public String getTreeID() { return treeID; }
+
+    /** Get the files that differ between from and to, filename -> blobID
+     * in to, or null if to doesn't have the file
+     * @param from
+     * @param to
+     * @return
+     */
+    public static TreeMap<String, String> diff(Commit from, Commit to) {
+        if (from.blobMap == null && to.blobMap == null && from.changes == null
+                && to.changes == null) {
+            return Tree.diff(ObjectStore.LOCAL, from.treeID, to.treeID);
+        }
+        /* commits written before trees existed only have the flat map */
+        TreeMap<String, String> result = new TreeMap<>();
+        TreeMap<String, String> fromMap = from.getBlobMap();
+        TreeMap<String, String> toMap = to.getBlobMap();
+        for (String filename : fromMap.keySet()) {
+            if (!toMap.containsKey(filename)) {
+                result.put(filename, null);
+            }
+        }
+        for (Map.Entry<String, String> e : toMap.entrySet()) {
+            if (!e.getValue().equals(fromMap.get(e.getKey()))) {
+                result.put(e.getKey(), e.getValue());
+            }
+        }
+        return result;
+    }
 
     public String getMessage() { return message;}
 
+    public Date getDate() { return date; }
+
     public String getFirstParentID() { return firstParentID; }
 
     public String getSecondParentID() { return secondParentID; }
 
+    /** Same output as formatting "%ta %tb %td %tT %tY %tz", without
+     * creating a Formatter for every commit */
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss yyyy xx", Locale.US);
+
     public String getFormatDate() {
-        Formatter formatter = new Formatter(Locale.US);
-        formatter.format("%ta %tb %td %tT %tY %tz", date, date, date, date, date, date);
-        return formatter.toString();
+        return DATE_FORMAT.format(date.toInstant().atZone(ZoneId.systemDefault()));
     }
 
     public void setMessage(String message) { this.message = message; }
@@ -236,9 +453,9 @@ public class Commit implements Serializable {
     }
 
     /** Get content of the given file */
-    public String getContentFromName(String filename) {
-        String blobID = blobMap.get(filename);
-        return Blob.readContentFromID(blobID);
+    public byte[] getContentFromName(String filename) {
+        String blobID = getBlobMap().get(filename);
+        return Blob.readBytesFromID(blobID);
     }
 
     public Commit getFirstParentCommit() {
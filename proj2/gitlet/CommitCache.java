@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** An in-process cache of deserialized commits, keyed by full commit id.
+ *
+ *  Commits are immutable once saved, so a cached Commit can be handed out
+ *  again instead of deserializing it from disk. gc deletes unreachable
+ *  commits though, and clears the cache when it does. The cache is bounded by
+ *  the total size of the cached commits (measured as the size of their
+ *  stored encoding) and evicts the least recently used commit first.
+ *
+ *  Set the environment variable GITLET_DEBUG to print hit/miss counters
+ *  on stderr when gitlet exits.
+ */
+public class CommitCache {
+    /** Upper bound of the summed sizes of all cached commits */
+    private static final long MAX_BYTES = 64L << 20;
+
+    private static final LinkedHashMap<String, Entry> CACHE =
+            new LinkedHashMap<>(256, 0.75f, true);
+    private static long totalBytes = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+
+    private static class Entry {
+        final Commit commit;
+        /** grows when the commit's file map is built, see grow */
+        long size;
+
+        Entry(Commit commit, long size) {
+            this.commit = commit;
+            this.size = size;
+        }
+    }
+
+    /** Return the cached commit with the full id COMMITID, or null */
+    public static synchronized Commit get(String commitID) {
+        Entry e = CACHE.get(commitID);
+        if (e == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return e.commit;
+    }
+
+    /** Cache COMMIT under COMMITID. SIZE is the size of its stored encoding. */
+    public static synchronized void put(String commitID, Commit commit, long size) {
+        if (size > MAX_BYTES) {
+            return;
+        }
+        Entry old = CACHE.put(commitID, new Entry(commit, size));
+        if (old != null) {
+            totalBytes -= old.size;
+        }
+        totalBytes += size;
+        Iterator<Map.Entry<String, Entry>> it = CACHE.entrySet().iterator();
+        while (totalBytes > MAX_BYTES && it.hasNext()) {
+            totalBytes -= it.next().getValue().size;
+            it.remove();
+        }
+    }
+
+    /** Forget every cached commit, after commits were deleted */
+    public static synchronized void clear() {
+        CACHE.clear();
+        totalBytes = 0;
+    }
+
+    /** Count SIZE more bytes for COMMIT, cached under COMMITID, e.g. for
+     *  the file map getBlobMap keeps on it. Nothing if it was evicted. */
+    public static synchronized void grow(String commitID, Commit commit, long size) {
+        Entry e = CACHE.get(commitID);
+        if (e == null || e.commit != commit) {
+            return;
+        }
+        e.size += size;
+        totalBytes += size;
+        Iterator<Map.Entry<String, Entry>> it = CACHE.entrySet().iterator();
+        while (totalBytes > MAX_BYTES && it.hasNext()) {
+            totalBytes -= it.next().getValue().size;
+            it.remove();
+        }
+    }
+
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+    public static synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Print the counters on stderr, so command output is not disturbed */
+    public static synchronized void printStats() {
+        System.err.printf("commit cache: %d hits, %d misses, %d commits, %d bytes%n",
+                hits, misses, CACHE.size(), totalBytes);
+    }
+
+    /** Register printStats to run on exit if GITLET_DEBUG is set */
+    public static void enableDebugOutput() {
+        if (System.getenv("GITLET_DEBUG") != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(CommitCache::printStats));
+        }
+    }
+}
@@ -0,0 +1,566 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** The commit graph: the parents and the generation number of every commit,
+ *  kept on disk so history can be walked without loading commits.
+ *
+ *  Like CommitIndex it is made of two files in .gitlet:
+ *      commit-graph        "GCG2" | idLength | count | epoch |
+ *                          count * record, sorted by id
+ *      commit-graph-tail   epoch | records of commits added since
+ *      record = id | first parent | second parent | generation
+ *  A commit is known by its position: i for the i-th record of
+ *  commit-graph, count + j for the j-th record of the tail. Parents are
+ *  positions, or -1. commit-graph is memory-mapped and searched by id, and
+ *  only the tail, at most TAIL_LIMIT records, is read into memory, so a
+ *  command doesn't read the whole graph. add appends to the tail; once it
+ *  is full it is merged into a new commit-graph. The epoch, new with every
+ *  commit-graph, tells which commit-graph a tail belongs to: a tail left
+ *  next to a newer one is ignored.
+ *
+ *  The generation of a commit is 1 + the largest generation of its parents,
+ *  so an ancestor always has a smaller generation than its descendants.
+ *  mergeBase uses that to stop as soon as no better candidate can exist.
+ *
+ *  The graph is derived data: if it is missing, of the first format, or a
+ *  commit can't be found in it, it is rebuilt from the commit index.
+ */
+public class CommitGraph {
+    private static final byte[] MAGIC = "GCG2".getBytes(StandardCharsets.US_ASCII);
+    /** magic + idLength + count + epoch */
+    private static final int HEADER = 16;
+    /** first parent + second parent + generation, following the id */
+    private static final int RECORD_TAIL = 12;
+    private static final int TAIL_LIMIT = 256;
+    private static final int NONE = -1;
+    private static final Random EPOCHS = new Random();
+
+    /** The commit graph of the repository in the current working directory */
+    public static final CommitGraph LOCAL =
+            new CommitGraph(Repository.GITLET_DIR, ObjectStore.LOCAL, CommitIndex.LOCAL);
+
+    private final File graphFile;
+    private final File tailFile;
+    private final ObjectStore store;
+    private final CommitIndex index;
+
+    /** Loaded lazily by load() */
+    private MappedByteBuffer sorted;
+    private int idLength;
+    private int recordSize;
+    private int count;
+    private int epoch;
+    /** The tail: id -> position, and the ids and records by position - count */
+    private HashMap<String, Integer> tailPositions;
+    private List<String> tailIDs;
+    private List<int[]> tailRecords;
+    /** stamp() when the graph was loaded */
+    private String loadedStamp;
+
+    public CommitGraph(File gitletDir, ObjectStore store, CommitIndex index) {
+        this.graphFile = join(gitletDir, "commit-graph");
+        this.tailFile = join(gitletDir, "commit-graph-tail");
+        this.store = store;
+        this.index = index;
+    }
+
+    private String stamp() {
+        return fileStamp(graphFile) + "|" + fileStamp(tailFile);
+    }
+
+    /** Load the graph, rebuilding it if it is missing or of the first format */
+    private void load() {
+        if (!tryLoad()) {
+            rebuild();
+            if (!tryLoad()) {
+                throw error("Corrupted commit graph");
+            }
+        }
+    }
+
+    /** Load the graph unless it is loaded already
+     *  @return false if it is missing or of the first format
+     */
+    private boolean tryLoad() {
+        if (sorted != null) {
+            return true;
+        }
+        if (!graphFile.exists()) {
+            return false;
+        }
+        loadedStamp = stamp();
+        MappedByteBuffer map;
+        try (RandomAccessFile raf = new RandomAccessFile(graphFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] magic = new byte[MAGIC.length];
+        if (map.limit() < HEADER) {
+            return false;
+        }
+        map.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            return false;
+        }
+        idLength = map.getInt(4);
+        count = map.getInt(8);
+        epoch = map.getInt(12);
+        recordSize = idLength + RECORD_TAIL;
+        tailPositions = new HashMap<>();
+        tailIDs = new ArrayList<>();
+        tailRecords = new ArrayList<>();
+        if (tailFile.exists()) {
+            ByteBuffer buf = ByteBuffer.wrap(readContents(tailFile));
+            if (buf.remaining() >= 4 && buf.getInt() == epoch) {
+                byte[] id = new byte[idLength];
+                while (buf.remaining() >= recordSize) {
+                    buf.get(id);
+                    String s = new String(id, StandardCharsets.US_ASCII);
+                    tailPositions.put(s, count + tailIDs.size());
+                    tailIDs.add(s);
+                    tailRecords.add(new int[] {buf.getInt(), buf.getInt(), buf.getInt()});
+                }
+            }
+        }
+        sorted = map;
+        return true;
+    }
+
+    /** Forget the loaded graph if its files changed since it was loaded,
+     *  e.g. by another process. Used by the daemon, which keeps it loaded
+     *  from one command to the next. */
+    public void refresh() {
+        if (sorted != null && !stamp().equals(loadedStamp)) {
+            sorted = null;
+        }
+    }
+
+    /** Rebuild the graph from every commit in the commit index */
+    public void rebuild() {
+        try (FileLock lock = Locks.forFile(graphFile).lock(graphFile)) {
+            assert lock.isValid();
+            writeAll();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private void writeAll() {
+        /* order the commits so every parent comes before its children, to
+         * number the generations */
+        HashMap<String, Integer> gens = new HashMap<>();
+        HashMap<String, String[]> parents = new HashMap<>();
+        List<String> ids = index.allIDs();
+        for (String id : ids) {
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                String c = stack.peek();
+                if (gens.containsKey(c)) {
+                    stack.pop();
+                    continue;
+                }
+                String[] ps = parents.computeIfAbsent(c, this::readParents);
+                boolean ready = true;
+                int gen = 1;
+                for (String p : ps) {
+                    if (p == null) {
+                        continue;
+                    }
+                    Integer g = gens.get(p);
+                    if (g == null) {
+                        stack.push(p);
+                        ready = false;
+                    } else {
+                        gen = Math.max(gen, g + 1);
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    gens.put(c, gen);
+                }
+            }
+        }
+
+        /* parents missing from the index are found above, so they are added */
+        List<String> all = new ArrayList<>(gens.keySet());
+        Collections.sort(all);
+        HashMap<String, Integer> pos = new HashMap<>(all.size() * 2);
+        for (int i = 0; i < all.size(); i++) {
+            pos.put(all.get(i), i);
+        }
+        int length = all.isEmpty() ? UID_LENGTH : all.get(0).length();
+        File tmp = tempFileFor(graphFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmp.toPath()), BUFFER_SIZE))) {
+            writeHeader(out, length, all.size());
+            for (String id : all) {
+                String[] ps = parents.get(id);
+                out.write(id.getBytes(StandardCharsets.US_ASCII));
+                out.writeInt(ps[0] == null ? NONE : pos.get(ps[0]));
+                out.writeInt(ps[1] == null ? NONE : pos.get(ps[1]));
+                out.writeInt(gens.get(id));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        replace(tmp);
+    }
+
+    private static void writeHeader(DataOutputStream out, int idLength, int n)
+            throws IOException {
+        out.write(MAGIC);
+        out.writeInt(idLength);
+        out.writeInt(n);
+        out.writeInt(EPOCHS.nextInt());
+    }
+
+    /** Put the new commit-graph TMP in place, which drops the tail */
+    private void replace(File tmp) {
+        try {
+            Files.move(tmp.toPath(), graphFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        tailFile.delete();
+        sorted = null;
+    }
+
+    private String[] readParents(String commitID) {
+        Commit c = Commit.parse(store.read(ObjectStore.COMMIT, commitID));
+        return new String[] {c.getFirstParentID(), c.getSecondParentID()};
+    }
+
+    /** Record a newly saved commit whose parents are FIRSTPARENT and
+     *  SECONDPARENT (either may be null) */
+    public void add(String commitID, String firstParent, String secondParent) {
+        /* other processes add commits too: hold the lock, and start from
+         * what they wrote */
+        try (FileLock lock = Locks.forFile(graphFile).lock(graphFile)) {
+            assert lock.isValid();
+            refresh();
+            append(commitID, firstParent, secondParent);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private void append(String commitID, String firstParent, String secondParent) {
+        if (!tryLoad()) {
+            /* the commit is already in the index, so the rebuild sees it */
+            writeAll();
+            return;
+        }
+        if (find(commitID) != NONE) {
+            return;
+        }
+        int p1 = firstParent == null ? NONE : find(firstParent);
+        int p2 = secondParent == null ? NONE : find(secondParent);
+        if ((firstParent != null && p1 == NONE) || (secondParent != null && p2 == NONE)) {
+            writeAll();
+            return;
+        }
+        int gen = 1 + Math.max(p1 == NONE ? 0 : generationAt(p1),
+                p2 == NONE ? 0 : generationAt(p2));
+        tailPositions.put(commitID, count + tailIDs.size());
+        tailIDs.add(commitID);
+        tailRecords.add(new int[] {p1, p2, gen});
+        if (tailIDs.size() >= TAIL_LIMIT) {
+            mergeTail();
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate((tailFile.exists() ? 0 : 4) + recordSize);
+        if (!tailFile.exists()) {
+            record.putInt(epoch);
+        }
+        record.put(commitID.getBytes(StandardCharsets.US_ASCII));
+        record.putInt(p1).putInt(p2).putInt(gen);
+        try {
+            Files.write(tailFile.toPath(), record.array(),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        /* the files hold nothing more than what is loaded */
+        loadedStamp = stamp();
+    }
+
+    /** Write a new commit-graph holding the loaded one and the tail. Both
+     *  are sorted, the tail once here, so they are merged in one pass; a
+     *  record moves up by the number of tail ids sorted before it. */
+    private void mergeTail() {
+        int n = tailIDs.size();
+        Integer[] order = new Integer[n];
+        for (int j = 0; j < n; j++) {
+            order[j] = j;
+        }
+        Arrays.sort(order, (x, y) -> tailIDs.get(x).compareTo(tailIDs.get(y)));
+        String[] tailSorted = new String[n];
+        int[] tailNewPos = new int[n];
+        for (int k = 0; k < n; k++) {
+            String id = tailIDs.get(order[k]);
+            tailSorted[k] = id;
+            tailNewPos[order[k]] = k + lowerBound(id.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        File tmp = tempFileFor(graphFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmp.toPath()), BUFFER_SIZE))) {
+            writeHeader(out, idLength, count + n);
+            int k = 0;
+            for (int i = 0; i <= count; i++) {
+                String id = i < count ? idAt(i) : null;
+                while (k < n && (id == null || tailSorted[k].compareTo(id) < 0)) {
+                    int j = order[k];
+                    writeRecord(out, tailSorted[k], tailRecords.get(j), tailSorted, tailNewPos);
+                    k += 1;
+                }
+                if (id != null) {
+                    writeRecord(out, id, new int[] {firstParentAt(i), secondParentAt(i),
+                        generationAt(i)}, tailSorted, tailNewPos);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        replace(tmp);
+    }
+
+    /** Write the record of ID, whose parents and generation are RECORD,
+     *  with the parents moved to their positions in the merged graph */
+    private void writeRecord(DataOutputStream out, String id, int[] record,
+                             String[] tailSorted, int[] tailNewPos) throws IOException {
+        out.write(id.getBytes(StandardCharsets.US_ASCII));
+        for (int k = 0; k < 2; k++) {
+            int p = record[k];
+            if (p == NONE) {
+                out.writeInt(NONE);
+            } else if (p < count) {
+                out.writeInt(p + tailBefore(tailSorted, idAt(p)));
+            } else {
+                out.writeInt(tailNewPos[p - count]);
+            }
+        }
+        out.writeInt(record[2]);
+    }
+
+    /** Return the number of ids of TAILSORTED less than ID */
+    private static int tailBefore(String[] tailSorted, String id) {
+        int i = Arrays.binarySearch(tailSorted, id);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /* POSITIONS */
+
+    private String idAt(int pos) {
+        if (pos >= count) {
+            return tailIDs.get(pos - count);
+        }
+        byte[] id = new byte[idLength];
+        sorted.get(HEADER + pos * recordSize, id);
+        return new String(id, StandardCharsets.US_ASCII);
+    }
+
+    /** Return field K of the record at POS: 0 and 1 for the parents, 2
+     *  for the generation */
+    private int fieldAt(int pos, int k) {
+        if (pos >= count) {
+            return tailRecords.get(pos - count)[k];
+        }
+        return sorted.getInt(HEADER + pos * recordSize + idLength + 4 * k);
+    }
+
+    private int firstParentAt(int pos) {
+        return fieldAt(pos, 0);
+    }
+
+    private int secondParentAt(int pos) {
+        return fieldAt(pos, 1);
+    }
+
+    private int generationAt(int pos) {
+        return fieldAt(pos, 2);
+    }
+
+    /** Compare the id at POS of commit-graph with KEY */
+    private int compareAt(int pos, byte[] key) {
+        int base = HEADER + pos * recordSize;
+        for (int k = 0; k < idLength && k < key.length; k++) {
+            int diff = (sorted.get(base + k) & 0xff) - (key[k] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return Integer.compare(idLength, key.length);
+    }
+
+    /** Return the number of ids of commit-graph less than KEY */
+    private int lowerBound(byte[] key) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the position of COMMITID in the loaded graph, or NONE */
+    private int find(String commitID) {
+        Integer pos = tailPositions.get(commitID);
+        if (pos != null) {
+            return pos;
+        }
+        byte[] key = commitID.getBytes(StandardCharsets.US_ASCII);
+        int i = lowerBound(key);
+        return i < count && compareAt(i, key) == 0 ? i : NONE;
+    }
+
+    /** Return the position of COMMITID, rebuilding the graph if the commit
+     *  was written without it */
+    private int position(String commitID) {
+        load();
+        int pos = find(commitID);
+        if (pos == NONE) {
+            rebuild();
+            load();
+            pos = find(commitID);
+            if (pos == NONE) {
+                throw error("Commit %s is not in the commit graph", commitID);
+            }
+        }
+        return pos;
+    }
+
+    /* QUERIES */
+
+    /** Return the first parent of COMMITID, or null for the initial commit */
+    public String firstParent(String commitID) {
+        int p = firstParentAt(position(commitID));
+        return p == NONE ? null : idAt(p);
+    }
+
+    /** Return the second parent of COMMITID, or null if it isn't a merge */
+    public String secondParent(String commitID) {
+        int p = secondParentAt(position(commitID));
+        return p == NONE ? null : idAt(p);
+    }
+
+    public int generation(String commitID) {
+        return generationAt(position(commitID));
+    }
+
+    private static final int FROM_A = 1;
+    private static final int FROM_B = 2;
+    private static final int STALE = 4;
+
+    /** Return the latest common ancestor of A and B.
+     *  Commits are visited newest generation first. A commit reached from
+     *  both sides is a merge base, and everything below it is marked stale;
+     *  the walk stops once only stale commits are left, since none of them
+     *  can be a better answer. A commit is queued once: its flags are read
+     *  when it is taken out, and only its descendants, which all come out
+     *  before it, change them. nonStale counts the queued commits that
+     *  aren't stale. */
+    public String mergeBase(String a, String b) {
+        int posA = position(a);
+        int posB = position(b);
+        if (posA == posB) {
+            return a;
+        }
+        HashMap<Integer, Integer> flags = new HashMap<>();
+        HashMap<Integer, Integer> gens = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            int diff = Integer.compare(gens.get(y), gens.get(x));
+            return diff != 0 ? diff : Integer.compare(y, x);
+        });
+        HashSet<Integer> queued = new HashSet<>();
+        flags.put(posA, FROM_A);
+        flags.put(posB, FROM_B);
+        gens.put(posA, generationAt(posA));
+        gens.put(posB, generationAt(posB));
+        queue.add(posA);
+        queue.add(posB);
+        queued.add(posA);
+        queued.add(posB);
+        int nonStale = 2;
+        int result = NONE;
+
+        while (nonStale > 0) {
+            int c = queue.poll();
+            queued.remove(c);
+            int f = flags.get(c);
+            if ((f & STALE) == 0) {
+                nonStale -= 1;
+            }
+            if ((f & (FROM_A | FROM_B)) == (FROM_A | FROM_B) && (f & STALE) == 0) {
+                /* the first one found has the highest generation */
+                if (result == NONE) {
+                    result = c;
+                }
+                f |= STALE;
+                flags.put(c, f);
+            }
+            for (int p : new int[] {firstParentAt(c), secondParentAt(c)}) {
+                if (p == NONE) {
+                    continue;
+                }
+                int old = flags.getOrDefault(p, 0);
+                if ((old | f) == old) {
+                    continue;
+                }
+                flags.put(p, old | f);
+                if (queued.contains(p)) {
+                    if ((old & STALE) == 0 && (f & STALE) != 0) {
+                        nonStale -= 1;
+                    }
+                } else {
+                    gens.put(p, generationAt(p));
+                    queue.add(p);
+                    queued.add(p);
+                    if (((old | f) & STALE) == 0) {
+                        nonStale += 1;
+                    }
+                }
+            }
+        }
+        return result == NONE ? null : idAt(result);
+    }
+
+    /** Check whether ANCESTOR is reachable from COMMITID */
+    public boolean isAncestor(String ancestor, String commitID) {
+        return ancestor.equals(mergeBase(ancestor, commitID));
+    }
+}
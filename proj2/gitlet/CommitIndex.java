@@ -0,0 +1,249 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** A sorted index of all commit ids, used to resolve full and abbreviated
+ *  commit ids without listing the object directories.
+ *
+ *  The index is made of two files in .gitlet:
+ *      commit-index        "GCIX" | count | idLength | count * id, sorted
+ *      commit-index-tail   ids added since the last merge, one per line
+ *  A lookup is a binary search over the memory-mapped sorted part plus a
+ *  scan of the tail. saveCommit only appends to the tail; once the tail
+ *  holds TAIL_LIMIT ids it is merged into the sorted part.
+ *
+ *  The index is derived data: if it is missing, or a commit can't be found
+ *  in it, it is rebuilt from the object store.
+ */
+public class CommitIndex {
+    private static final byte[] MAGIC = "GCIX".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER = 12;
+    private static final int TAIL_LIMIT = 256;
+
+    /** The commit index of the repository in the current working directory */
+    public static final CommitIndex LOCAL =
+            new CommitIndex(Repository.GITLET_DIR, ObjectStore.LOCAL);
+
+    private final File indexFile;
+    private final File tailFile;
+    private final ObjectStore store;
+
+    /** Loaded lazily by load() */
+    private MappedByteBuffer sorted;
+    private int count;
+    private int idLength;
+    private List<String> tail;
+    /** stamp() when the index was loaded */
+    private String loadedStamp;
+
+    public CommitIndex(File gitletDir, ObjectStore store) {
+        this.indexFile = join(gitletDir, "commit-index");
+        this.tailFile = join(gitletDir, "commit-index-tail");
+        this.store = store;
+    }
+
+    private void load() {
+        if (tail != null) {
+            return;
+        }
+        if (!indexFile.exists()) {
+            rebuild();
+        }
+        loadedStamp = stamp();
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            sorted = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] magic = new byte[MAGIC.length];
+        sorted.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw error("Corrupted commit index");
+        }
+        count = sorted.getInt(4);
+        idLength = sorted.getInt(8);
+        tail = new ArrayList<>();
+        if (tailFile.exists()) {
+            for (String line : readContentsAsString(tailFile).split("\n")) {
+                if (!line.isEmpty()) {
+                    tail.add(line);
+                }
+            }
+        }
+    }
+
+    private String stamp() {
+        return fileStamp(indexFile) + "|" + fileStamp(tailFile);
+    }
+
+    /** Forget the loaded index if its files changed since it was loaded,
+     *  e.g. by another process. Used by the daemon, which keeps it loaded
+     *  from one command to the next.
+     *  @return whether the loaded index was dropped */
+    public boolean refresh() {
+        if (tail != null && !stamp().equals(loadedStamp)) {
+            sorted = null;
+            tail = null;
+            return true;
+        }
+        return false;
+    }
+
+    /** Rebuild the index from every commit in the object store */
+    public void rebuild() {
+        writeSorted(new TreeSet<>(store.allCommitIDs()));
+    }
+
+    private void writeSorted(TreeSet<String> ids) {
+        File tmp = tempFileFor(indexFile);
+        int length = ids.isEmpty() ? UID_LENGTH : ids.first().length();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmp.toPath()), BUFFER_SIZE))) {
+            out.write(MAGIC);
+            out.writeInt(ids.size());
+            out.writeInt(length);
+            for (String id : ids) {
+                out.write(id.getBytes(StandardCharsets.US_ASCII));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        tailFile.delete();
+        sorted = null;
+        tail = null;
+    }
+
+    /** Record a newly saved commit */
+    public void add(String commitID) {
+        /* other processes add commits too: hold the lock, and start from
+         * what they wrote */
+        try (FileLock lock = Locks.forFile(indexFile).lock(indexFile)) {
+            assert lock.isValid();
+            refresh();
+            if (!indexFile.exists()) {
+                /* the commit is already in the store, so the rebuild sees it */
+                rebuild();
+                return;
+            }
+            load();
+            if (tail.size() + 1 >= TAIL_LIMIT) {
+                TreeSet<String> ids = new TreeSet<>(tail);
+                for (int i = 0; i < count; i++) {
+                    ids.add(idAt(i));
+                }
+                ids.add(commitID);
+                writeSorted(ids);
+                return;
+            }
+            Files.write(tailFile.toPath(), (commitID + "\n").getBytes(StandardCharsets.US_ASCII),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            tail.add(commitID);
+            /* the files hold nothing more than what is loaded */
+            loadedStamp = stamp();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* LOOKUP */
+
+    private String idAt(int i) {
+        byte[] id = new byte[idLength];
+        sorted.get(HEADER + i * idLength, id);
+        return new String(id, StandardCharsets.US_ASCII);
+    }
+
+    /** Compare the id at I with the first KEY.length chars of KEY */
+    private int compareAt(int i, byte[] key) {
+        int base = HEADER + i * idLength;
+        int len = Math.min(key.length, idLength);
+        for (int k = 0; k < len; k++) {
+            int diff = (sorted.get(base + k) & 0xff) - (key[k] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return key.length > idLength ? -1 : 0;
+    }
+
+    /** Return up to LIMIT commit ids starting with PREFIX */
+    private List<String> find(String prefix, int limit) {
+        load();
+        List<String> result = new ArrayList<>();
+        byte[] key = prefix.getBytes(StandardCharsets.US_ASCII);
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count && result.size() < limit
+                && compareAt(i, key) == 0; i++) {
+            result.add(idAt(i));
+        }
+        for (String id : tail) {
+            if (result.size() < limit && id.startsWith(prefix) && !result.contains(id)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Resolve a full or abbreviated commit id.
+     *  Returns null if no commit matches; exits with an error message if
+     *  more than one commit matches PREFIX. */
+    public String resolve(String prefix) {
+        List<String> matches = find(prefix, 2);
+        if (matches.isEmpty()) {
+            /* the index may be missing commits written without it */
+            matches = store.commitIDsWithPrefix(prefix);
+            if (matches.isEmpty()) {
+                return null;
+            }
+            rebuild();
+        }
+        if (matches.size() > 1) {
+            message("Ambiguous commit id %s.", prefix);
+            exit(0);
+        }
+        return matches.get(0);
+    }
+
+    /** Return every commit id in the index, in sorted order */
+    public List<String> allIDs() {
+        load();
+        TreeSet<String> ids = new TreeSet<>(tail);
+        for (int i = 0; i < count; i++) {
+            ids.add(idAt(i));
+        }
+        return new ArrayList<>(ids);
+    }
+}
@@ -0,0 +1,202 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** A resident gitlet for one repository, so a command doesn't pay for
+ *  starting a JVM and loading the commit index, commit graph, stat cache
+ *  and pack indexes every time.
+ *
+ *  "gitlet daemon" listens on the Unix domain socket .gitlet/daemon.sock
+ *  and runs the commands it is sent one at a time, in the repository it
+ *  was started in; "gitlet daemon stop" stops it. A request is the
+ *  arguments of a command, each followed by a NUL byte, and ends when the
+ *  client shuts down its side of the connection. The reply is what the
+ *  command prints followed by one byte, the exit status gitlet would have
+ *  exited with, and ends when the daemon closes the connection. Client is
+ *  a thin client; without a JVM, from a shell, the status byte included:
+ *      printf '%s\0' log --oneline | nc -U -N .gitlet/daemon.sock
+ *
+ *  Before every command the daemon forgets the stage, which is cheap to
+ *  read, and drops whatever it keeps loaded that another process has
+ *  changed since (see the refresh methods). CommitCache is cleared along
+ *  with the commit index or the packs, since a gc run by another process
+ *  may have deleted commits. Between commands the daemon holds no locks,
+ *  so it never keeps gc or repack waiting.
+ */
+public class Daemon {
+    public static final File SOCKET_FILE = join(Repository.GITLET_DIR, "daemon.sock");
+
+    /** The socket, relative to the working directory: Unix socket paths
+     *  are limited to about 100 bytes. */
+    private static final UnixDomainSocketAddress ADDRESS = UnixDomainSocketAddress.of(
+            Repository.CWD.toPath().relativize(SOCKET_FILE.toPath()));
+
+    /** Run commands sent to the socket until a stop request comes */
+    public static void serve() {
+        if (SOCKET_FILE.exists()) {
+            if (isRunning()) {
+                message("A daemon is already running.");
+                exit(0);
+            }
+            /* left behind by a daemon that was killed */
+            SOCKET_FILE.delete();
+        }
+        PrintStream console = System.out;
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(ADDRESS);
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET_FILE::delete));
+            /* the shared lock of checkInit is only for this command, not
+             * for the commands the daemon runs */
+            Locks.releaseAll();
+            boolean running = true;
+            while (running) {
+                try (SocketChannel channel = server.accept()) {
+                    running = handle(channel, console);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            SOCKET_FILE.delete();
+        }
+    }
+
+    /** Run the command read from CHANNEL with its output sent back, then
+     *  put System.out back to CONSOLE.
+     *  @return false if it was a stop request
+     */
+    private static boolean handle(SocketChannel channel, PrintStream console)
+            throws IOException {
+        String[] args = readRequest(Channels.newInputStream(channel));
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+        if (args.length == 2 && args[0].equals("daemon") && args[1].equals("stop")) {
+            out.write(0);
+            out.flush();
+            return false;
+        }
+        System.setOut(out);
+        int status = 0;
+        try {
+            refresh();
+            Main.run(args);
+        } catch (ExitException excp) {
+            /* the command ended early, its message is printed */
+            status = Journal.commitAfterExit(excp.getStatus());
+        } catch (RuntimeException excp) {
+            /* a gitlet run directly would die with this trace; the daemon
+             * sends it to the client and goes on */
+            excp.printStackTrace(out);
+            status = 1;
+        } finally {
+            Locks.releaseAll();
+            System.setOut(console);
+        }
+        out.write(status);
+        out.flush();
+        return true;
+    }
+
+    /** Forget the stage and the journal, and anything kept loaded that is
+     *  out of date */
+    private static void refresh() {
+        Stage.reset();
+        Journal.reset();
+        Refs.LOCAL.reset();
+        Hashing.reset();
+        boolean packsChanged = ObjectStore.LOCAL.refresh();
+        boolean indexChanged = CommitIndex.LOCAL.refresh();
+        if (packsChanged || indexChanged) {
+            CommitCache.clear();
+        }
+        CommitGraph.LOCAL.refresh();
+        StatCache.LOCAL.refresh();
+    }
+
+    /** Return the NUL terminated arguments read from IN until its end */
+    private static String[] readRequest(InputStream in) throws IOException {
+        byte[] bytes = in.readAllBytes();
+        List<String> args = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == 0) {
+                args.add(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /** Return whether a daemon is listening on the socket */
+    public static boolean isRunning() {
+        try (SocketChannel channel = SocketChannel.open(ADDRESS)) {
+            return channel.isConnected();
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Send the command ARGS to the daemon and copy what it prints to OUT.
+     *  @return the exit status of the command, or -1 if no daemon is
+     *  listening, and nothing was sent
+     */
+    public static int send(String[] args, OutputStream out) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(ADDRESS);
+        } catch (IOException excp) {
+            return -1;
+        }
+        try (channel) {
+            OutputStream request = Channels.newOutputStream(channel);
+            for (String arg : args) {
+                request.write(arg.getBytes(StandardCharsets.UTF_8));
+                request.write(0);
+            }
+            channel.shutdownOutput();
+            return copyReply(Channels.newInputStream(channel), out);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Copy the reply read from IN to OUT, all but its last byte, the
+     *  exit status, which is returned. 1 if the daemon died and sent none. */
+    private static int copyReply(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int held = -1;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            if (held >= 0) {
+                out.write(held);
+            }
+            out.write(buffer, 0, n - 1);
+            held = buffer[n - 1] & 0xff;
+        }
+        out.flush();
+        return held < 0 ? 1 : held;
+    }
+
+    /** Stop the daemon of the repository */
+    public static void stop() {
+        if (!SOCKET_FILE.exists() || send(new String[] {"daemon", "stop"}, System.out) < 0) {
+            message("No daemon is running.");
+            exit(0);
+        }
+    }
+}
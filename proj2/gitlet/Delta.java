@@ -0,0 +1,215 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+
+import static gitlet.Utils.*;
+
+/** Binary deltas in the style of xdelta: a target is described as copies
+ *  of ranges of a base plus the bytes that are new.
+ *
+ *  A delta looks like this:
+ *      base length (varint) | target length (varint) | instructions ...
+ *      insert = [1..127] followed by that many literal bytes
+ *      copy   = 0x80 | offset in base (varint) | length (varint)
+ *  Varints are 7 bits per byte, low bits first, the high bit set on every
+ *  byte but the last.
+ *
+ *  Matches are found with a rolling hash: the base is cut into blocks of
+ *  BLOCK bytes whose hashes go into an Index, and a window of BLOCK bytes
+ *  slides over the target one byte at a time. When the window hash is in
+ *  the index the match is checked and extended in both directions, so one
+ *  copy covers everything the two files share around a change.
+ */
+public class Delta {
+    /** Size of the blocks of the base, the shortest match used */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash */
+    private static final int PRIME = 0x01000193;
+    /** PRIME to the power BLOCK - 1, to drop the byte leaving the window */
+    private static final int OUT_FACTOR;
+    /** Candidates with the same hash looked at for one window */
+    private static final int MAX_PROBES = 8;
+    private static final int COPY = 0x80;
+    private static final int MAX_INSERT = 0x7f;
+
+    static {
+        int f = 1;
+        for (int i = 0; i < BLOCK - 1; i++) {
+            f *= PRIME;
+        }
+        OUT_FACTOR = f;
+    }
+
+    /** The block hashes of a base, built once and used for every target
+     *  delta'd against it */
+    public static class Index {
+        private final byte[] base;
+        /** open addressing table, slot -> block offset + 1, 0 if empty */
+        private final int[] offsets;
+        private final int[] hashes;
+        private final int mask;
+
+        public Index(byte[] base) {
+            this.base = base;
+            int blocks = base.length / BLOCK;
+            int size = Integer.highestOneBit(Math.max(blocks, 1) * 2 - 1) << 1;
+            offsets = new int[size];
+            hashes = new int[size];
+            mask = size - 1;
+            for (int off = 0; off + BLOCK <= base.length; off += BLOCK) {
+                int h = hash(base, off);
+                int slot = slotOf(h);
+                while (offsets[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                offsets[slot] = off + 1;
+                hashes[slot] = h;
+            }
+        }
+
+        private int slotOf(int h) {
+            return (h * 0x9E3779B1 >>> 7) & mask;
+        }
+
+        public int baseLength() {
+            return base.length;
+        }
+    }
+
+    private static int hash(byte[] b, int off) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k++) {
+            h = h * PRIME + (b[off + k] & 0xff);
+        }
+        return h;
+    }
+
+    /** Return the delta turning the base of INDEX into TARGET, or null as
+     *  soon as it is longer than LIMIT bytes */
+    public static byte[] create(Index index, byte[] target, int limit) {
+        byte[] base = index.base;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        /* target[insertStart, i) has no match yet */
+        int insertStart = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            int bestOffset = -1;
+            int bestLength = 0;
+            int slot = index.slotOf(h);
+            for (int probes = 0; probes < MAX_PROBES && index.offsets[slot] != 0; probes++) {
+                if (index.hashes[slot] == h) {
+                    int off = index.offsets[slot] - 1;
+                    int len = 0;
+                    while (off + len < base.length && i + len < target.length
+                            && base[off + len] == target[i + len]) {
+                        len += 1;
+                    }
+                    if (len > bestLength) {
+                        bestOffset = off;
+                        bestLength = len;
+                    }
+                }
+                slot = (slot + 1) & index.mask;
+            }
+
+            if (bestLength >= BLOCK) {
+                /* take back the bytes before the match that match too */
+                int start = i;
+                while (bestOffset > 0 && start > insertStart
+                        && base[bestOffset - 1] == target[start - 1]) {
+                    bestOffset -= 1;
+                    start -= 1;
+                    bestLength += 1;
+                }
+                writeInsert(out, target, insertStart, start);
+                out.write(COPY);
+                writeVarint(out, bestOffset);
+                writeVarint(out, bestLength);
+                i = start + bestLength;
+                insertStart = i;
+                if (out.size() > limit) {
+                    return null;
+                }
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - (target[i] & 0xff) * OUT_FACTOR) * PRIME
+                            + (target[i + BLOCK] & 0xff);
+                }
+                i += 1;
+            }
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.size() > limit ? null : out.toByteArray();
+    }
+
+    /** Return the target DELTA describes, applied to BASE */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw error("Delta doesn't match its base");
+        }
+        byte[] result = new byte[readVarint(delta, pos)];
+        int n = 0;
+        try {
+            while (pos[0] < delta.length) {
+                int op = delta[pos[0]++] & 0xff;
+                if ((op & COPY) != 0) {
+                    int offset = readVarint(delta, pos);
+                    int length = readVarint(delta, pos);
+                    System.arraycopy(base, offset, result, n, length);
+                    n += length;
+                } else {
+                    System.arraycopy(delta, pos[0], result, n, op);
+                    pos[0] += op;
+                    n += op;
+                }
+            }
+        } catch (IndexOutOfBoundsException excp) {
+            throw error("Corrupted delta");
+        }
+        if (n != result.length) {
+            throw error("Corrupted delta");
+        }
+        return result;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] b, int start, int end) {
+        while (start < end) {
+            int len = Math.min(MAX_INSERT, end - start);
+            out.write(len);
+            out.write(b, start, len);
+            start += len;
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Read a varint of B at POS[0] and move POS[0] past it */
+    private static int readVarint(byte[] b, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        int x;
+        do {
+            if (pos[0] >= b.length || shift > 28) {
+                throw error("Corrupted delta");
+            }
+            x = b[pos[0]++] & 0xff;
+            value |= (x & 0x7f) << shift;
+            shift += 7;
+        } while ((x & 0x80) != 0);
+        return value;
+    }
+}
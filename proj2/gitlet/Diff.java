@@ -0,0 +1,463 @@
+package gitlet;
+
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** A line diff engine: Myers' O((N+M)D) algorithm in its linear space,
+ *  divide-and-conquer form, plus unified and --stat output.
+ *
+ *  Lines are interned to ints first, so the algorithm only compares ints.
+ *  Before running it, lines that don't occur in the other file at all are
+ *  marked as changed and left out, which makes very different files cheap.
+ *  If the search for a middle snake gets too expensive the best split found
+ *  so far is used instead, so the result may be slightly longer than the
+ *  shortest diff, like GNU diff does.
+ */
+public class Diff {
+    /** Lines of context around every hunk */
+    private static final int CONTEXT = 3;
+    /** Width of the +/- bar of --stat */
+    private static final int STAT_WIDTH = 50;
+    /** Files larger than this are not read into memory to be diffed, they
+     *  are shown like binary files */
+    public static final long MAX_SIZE = 32 << 20;
+
+    /** A changed region: lines [aStart, aEnd) of a were replaced by lines
+     *  [bStart, bEnd) of b. Either range may be empty. */
+    public static class Edit {
+        public final int aStart;
+        public final int aEnd;
+        public final int bStart;
+        public final int bEnd;
+
+        Edit(int aStart, int aEnd, int bStart, int bEnd) {
+            this.aStart = aStart;
+            this.aEnd = aEnd;
+            this.bStart = bStart;
+            this.bEnd = bEnd;
+        }
+    }
+
+    /* LINES */
+
+    /** Split content into lines. Every line keeps its '\n', so a last line
+     *  without one is different from the same line with one. */
+    public static List<String> lines(byte[] content) {
+        String s = new String(content, StandardCharsets.UTF_8);
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        while (start < s.length()) {
+            int end = s.indexOf('\n', start);
+            end = end < 0 ? s.length() : end + 1;
+            result.add(s.substring(start, end));
+            start = end;
+        }
+        return result;
+    }
+
+    /** Check whether content looks binary: a NUL in its first 8000 bytes */
+    public static boolean isBinary(byte[] content) {
+        for (int i = 0; i < Math.min(content.length, 8000); i++) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Map every distinct line of all the given files to an int, and
+     *  return the files as arrays of those ints */
+    @SafeVarargs
+    public static int[][] intern(List<String>... files) {
+        HashMap<String, Integer> ids = new HashMap<>();
+        int[][] result = new int[files.length][];
+        for (int f = 0; f < files.length; f++) {
+            result[f] = new int[files[f].size()];
+            for (int i = 0; i < result[f].length; i++) {
+                Integer id = ids.putIfAbsent(files[f].get(i), ids.size());
+                result[f][i] = id == null ? ids.size() - 1 : id;
+            }
+        }
+        return result;
+    }
+
+    /* MYERS */
+
+    /** Return the edits that turn a into b, in order */
+    public static List<Edit> diff(int[] a, int[] b) {
+        boolean[] deleted = new boolean[a.length];
+        boolean[] inserted = new boolean[b.length];
+
+        /* lines that don't occur in the other file can't match anything */
+        int max = 0;
+        for (int x : a) {
+            max = Math.max(max, x);
+        }
+        for (int x : b) {
+            max = Math.max(max, x);
+        }
+        int[] countA = new int[max + 1];
+        int[] countB = new int[max + 1];
+        for (int x : a) {
+            countA[x] += 1;
+        }
+        for (int x : b) {
+            countB[x] += 1;
+        }
+        int[] indexA = new int[a.length];
+        int[] indexB = new int[b.length];
+        int n = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (countB[a[i]] == 0) {
+                deleted[i] = true;
+            } else {
+                indexA[n++] = i;
+            }
+        }
+        int m = 0;
+        for (int j = 0; j < b.length; j++) {
+            if (countA[b[j]] == 0) {
+                inserted[j] = true;
+            } else {
+                indexB[m++] = j;
+            }
+        }
+        int[] ra = new int[n];
+        int[] rb = new int[m];
+        for (int i = 0; i < n; i++) {
+            ra[i] = a[indexA[i]];
+        }
+        for (int j = 0; j < m; j++) {
+            rb[j] = b[indexB[j]];
+        }
+
+        Myers myers = new Myers(ra, rb);
+        myers.compare(0, n, 0, m);
+        for (int i = 0; i < n; i++) {
+            deleted[indexA[i]] = myers.deleted[i];
+        }
+        for (int j = 0; j < m; j++) {
+            inserted[indexB[j]] = myers.inserted[j];
+        }
+        return toEdits(deleted, inserted);
+    }
+
+    /** Collect runs of changed lines into edits */
+    private static List<Edit> toEdits(boolean[] deleted, boolean[] inserted) {
+        List<Edit> result = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < deleted.length || j < inserted.length) {
+            if ((i < deleted.length && deleted[i]) || (j < inserted.length && inserted[j])) {
+                int aStart = i;
+                int bStart = j;
+                while (i < deleted.length && deleted[i]) {
+                    i += 1;
+                }
+                while (j < inserted.length && inserted[j]) {
+                    j += 1;
+                }
+                result.add(new Edit(aStart, i, bStart, j));
+            } else {
+                i += 1;
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /** One run of the algorithm. The diagonal arrays are allocated once
+     *  and reused by every level of the recursion. */
+    private static class Myers {
+        private final int[] a;
+        private final int[] b;
+        final boolean[] deleted;
+        final boolean[] inserted;
+        private final int[] forward;
+        private final int[] backward;
+        private final int tooExpensive;
+
+        /* the result of middleSnake */
+        private int snakeStartX;
+        private int snakeStartY;
+        private int snakeEndX;
+        private int snakeEndY;
+
+        Myers(int[] a, int[] b) {
+            this.a = a;
+            this.b = b;
+            deleted = new boolean[a.length];
+            inserted = new boolean[b.length];
+            int diagonals = a.length + b.length + 3;
+            forward = new int[diagonals + 2];
+            backward = new int[diagonals + 2];
+            tooExpensive = Math.max(1024, 1 << ((32 - Integer.numberOfLeadingZeros(diagonals)) / 2));
+        }
+
+        /** Mark the changed lines between a[aLo, aHi) and b[bLo, bHi) */
+        void compare(int aLo, int aHi, int bLo, int bHi) {
+            while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                aLo += 1;
+                bLo += 1;
+            }
+            while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                aHi -= 1;
+                bHi -= 1;
+            }
+            if (aLo == aHi) {
+                Arrays.fill(inserted, bLo, bHi, true);
+            } else if (bLo == bHi) {
+                Arrays.fill(deleted, aLo, aHi, true);
+            } else if (!middleSnake(aLo, aHi, bLo, bHi)
+                    || (snakeStartX == aLo && snakeStartY == bLo)
+                    || (snakeEndX == aHi && snakeEndY == bHi)) {
+                /* no split that makes progress, give up on this part */
+                Arrays.fill(deleted, aLo, aHi, true);
+                Arrays.fill(inserted, bLo, bHi, true);
+            } else {
+                int startX = snakeStartX;
+                int startY = snakeStartY;
+                int endX = snakeEndX;
+                int endY = snakeEndY;
+                compare(aLo, startX, bLo, startY);
+                compare(endX, aHi, endY, bHi);
+            }
+        }
+
+        /** Find the middle snake of an optimal path from (aLo, bLo) to
+         *  (aHi, bHi) by searching from both ends at once. Sets snakeStart
+         *  and snakeEnd, in absolute line numbers.
+         *  The diagonal k holds the points with x - y == k, relative to
+         *  (aLo, bLo) going forward and to (aHi, bHi) going backward, where
+         *  x counts lines from the end. Diagonals that ran off the grid are
+         *  dropped from the search (kStart, kEnd).
+         *  Returns false if no split was found. */
+        private boolean middleSnake(int aLo, int aHi, int bLo, int bHi) {
+            int n = aHi - aLo;
+            int m = bHi - bLo;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            int maxD = (n + m + 1) / 2;
+            int offset = maxD + 1;
+            int length = 2 * maxD + 3;
+            Arrays.fill(forward, 0, length, -1);
+            Arrays.fill(backward, 0, length, -1);
+            forward[offset + 1] = 0;
+            backward[offset + 1] = 0;
+            int fStart = 0;
+            int fEnd = 0;
+            int bStart = 0;
+            int bEnd = 0;
+
+            for (int d = 0; d <= maxD; d++) {
+                for (int k = -d + fStart; k <= d - fEnd; k += 2) {
+                    int x;
+                    if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                        x = forward[offset + k + 1];
+                    } else {
+                        x = forward[offset + k - 1] + 1;
+                    }
+                    int y = x - k;
+                    int startX = x;
+                    int startY = y;
+                    while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    forward[offset + k] = x;
+                    if (x > n) {
+                        fEnd += 2;
+                    } else if (y > m) {
+                        fStart += 2;
+                    } else if (odd) {
+                        int kr = offset + delta - k;
+                        if (kr >= 0 && kr < length && backward[kr] != -1
+                                && x >= n - backward[kr]) {
+                            setSnake(aLo + startX, bLo + startY, aLo + x, bLo + y);
+                            return true;
+                        }
+                    }
+                }
+                for (int k = -d + bStart; k <= d - bEnd; k += 2) {
+                    int x;
+                    if (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) {
+                        x = backward[offset + k + 1];
+                    } else {
+                        x = backward[offset + k - 1] + 1;
+                    }
+                    int y = x - k;
+                    int startX = x;
+                    int startY = y;
+                    while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    backward[offset + k] = x;
+                    if (x > n) {
+                        bEnd += 2;
+                    } else if (y > m) {
+                        bStart += 2;
+                    } else if (!odd) {
+                        int kf = offset + delta - k;
+                        if (kf >= 0 && kf < length && forward[kf] != -1
+                                && forward[kf] >= n - x) {
+                            setSnake(aHi - x, bHi - y, aHi - startX, bHi - startY);
+                            return true;
+                        }
+                    }
+                }
+                if (d >= tooExpensive) {
+                    return bestForwardSplit(aLo, bLo, n, m, d, offset, fStart, fEnd);
+                }
+            }
+            return false;
+        }
+
+        /** Use the forward point that got furthest as the split, with an
+         *  empty snake */
+        private boolean bestForwardSplit(int aLo, int bLo, int n, int m, int d,
+                                         int offset, int fStart, int fEnd) {
+            int bestX = -1;
+            int bestY = -1;
+            for (int k = -d + fStart; k <= d - fEnd; k += 2) {
+                int x = forward[offset + k];
+                int y = x - k;
+                if (x >= 0 && x <= n && y >= 0 && y <= m && x + y > bestX + bestY) {
+                    bestX = x;
+                    bestY = y;
+                }
+            }
+            if (bestX < 0) {
+                return false;
+            }
+            setSnake(aLo + bestX, bLo + bestY, aLo + bestX, bLo + bestY);
+            return true;
+        }
+
+        private void setSnake(int startX, int startY, int endX, int endY) {
+            snakeStartX = startX;
+            snakeStartY = startY;
+            snakeEndX = endX;
+            snakeEndY = endY;
+        }
+    }
+
+    /* OUTPUT */
+
+    /** Print a unified diff of oldLines and newLines with CONTEXT lines of
+     *  context, under headers naming oldName and newName */
+    public static void printUnified(PrintWriter out, String oldName, String newName,
+                                    List<String> oldLines, List<String> newLines,
+                                    List<Edit> edits) {
+        out.append("--- ").append(oldName).append('\n');
+        out.append("+++ ").append(newName).append('\n');
+        int e = 0;
+        while (e < edits.size()) {
+            /* edits closer than 2 * CONTEXT lines share a hunk */
+            int last = e;
+            while (last + 1 < edits.size()
+                    && edits.get(last + 1).aStart - edits.get(last).aEnd <= 2 * CONTEXT) {
+                last += 1;
+            }
+            Edit first = edits.get(e);
+            Edit end = edits.get(last);
+            int aStart = Math.max(0, first.aStart - CONTEXT);
+            int bStart = Math.max(0, first.bStart - CONTEXT);
+            int aEnd = Math.min(oldLines.size(), end.aEnd + CONTEXT);
+            int bEnd = Math.min(newLines.size(), end.bEnd + CONTEXT);
+            out.append("@@ -").append(range(aStart, aEnd - aStart))
+                    .append(" +").append(range(bStart, bEnd - bStart)).append(" @@\n");
+            int i = aStart;
+            for (int k = e; k <= last; k++) {
+                Edit edit = edits.get(k);
+                for (; i < edit.aStart; i++) {
+                    printLine(out, ' ', oldLines.get(i));
+                }
+                for (int d = edit.aStart; d < edit.aEnd; d++) {
+                    printLine(out, '-', oldLines.get(d));
+                }
+                for (int d = edit.bStart; d < edit.bEnd; d++) {
+                    printLine(out, '+', newLines.get(d));
+                }
+                i = edit.aEnd;
+            }
+            for (; i < aEnd; i++) {
+                printLine(out, ' ', oldLines.get(i));
+            }
+            e = last + 1;
+        }
+    }
+
+    private static String range(int start, int length) {
+        if (length == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    private static void printLine(PrintWriter out, char prefix, String line) {
+        out.append(prefix);
+        if (line.endsWith("\n")) {
+            out.append(line);
+        } else {
+            out.append(line).append("\n\\ No newline at end of file\n");
+        }
+    }
+
+    /** Count the lines deleted and inserted by edits, {deleted, inserted} */
+    public static int[] count(List<Edit> edits) {
+        int[] result = new int[2];
+        for (Edit e : edits) {
+            result[0] += e.aEnd - e.aStart;
+            result[1] += e.bEnd - e.bStart;
+        }
+        return result;
+    }
+
+    /** Print one line of --stat: the name, the number of changed lines and
+     *  a bar of + and - scaled so the largest file gets STAT_WIDTH chars */
+    public static void printStatLine(PrintWriter out, String name, int nameWidth,
+                                     int[] counts, int maxTotal, int countWidth) {
+        int total = counts[0] + counts[1];
+        int plus = counts[1];
+        int minus = counts[0];
+        if (maxTotal > STAT_WIDTH) {
+            plus = scale(plus, maxTotal);
+            minus = scale(minus, maxTotal);
+        }
+        out.append(' ').append(pad(name, nameWidth)).append(" | ")
+                .append(String.format("%" + countWidth + "d", total));
+        if (total > 0) {
+            out.append(' ').append("+".repeat(plus)).append("-".repeat(minus));
+        }
+        out.append('\n');
+    }
+
+    private static int scale(int n, int maxTotal) {
+        return n == 0 ? 0 : Math.max(1, (int) ((long) n * STAT_WIDTH / maxTotal));
+    }
+
+    static String pad(String s, int width) {
+        return s.length() >= width ? s : s + " ".repeat(width - s.length());
+    }
+
+    /** Print the summary line of --stat */
+    public static void printStatSummary(PrintWriter out, int files, int insertions,
+                                        int deletions) {
+        out.append(' ').append(Integer.toString(files))
+                .append(files == 1 ? " file changed" : " files changed");
+        if (insertions > 0 || deletions == 0) {
+            out.append(", ").append(Integer.toString(insertions))
+                    .append(insertions == 1 ? " insertion(+)" : " insertions(+)");
+        }
+        if (deletions > 0) {
+            out.append(", ").append(Integer.toString(deletions))
+                    .append(deletions == 1 ? " deletion(-)" : " deletions(-)");
+        }
+        out.append('\n');
+    }
+}
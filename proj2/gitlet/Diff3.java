@@ -0,0 +1,211 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** A three-way line merge (diff3) of two files changed from a common base.
+ *
+ *  Both sides are diffed against the base with Diff. Changes of the two
+ *  sides that overlap or touch are grouped into one region; a region
+ *  changed by one side only takes that side, a region both sides changed
+ *  the same way takes it once, and only the remaining regions become
+ *  conflicts:
+ *      <<<<<<< HEAD
+ *      lines of the current branch
+ *      =======
+ *      lines of the given branch
+ *      >>>>>>>
+ *
+ *  The files are read from streams into one table of distinct lines, so
+ *  lines shared by the three versions are kept once and no file is held
+ *  as a whole String.
+ */
+public class Diff3 {
+    private static final byte[] OURS_MARKER = "<<<<<<< HEAD\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] THEIRS_MARKER = ">>>>>>>\n".getBytes(StandardCharsets.US_ASCII);
+
+    /** Interns the lines of several files. Lines are kept as ISO-8859-1
+     *  Strings, one char per byte, so they are written back unchanged. */
+    private static class LineTable {
+        private final HashMap<String, Integer> ids = new HashMap<>();
+        private final List<String> lines = new ArrayList<>();
+        private boolean binary = false;
+
+        /** Read every line of in, each with its '\n', as interned ids.
+         *  A null stream is an empty file. */
+        int[] read(InputStream in) throws IOException {
+            if (in == null) {
+                return new int[0];
+            }
+            int[] result = new int[256];
+            int n = 0;
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            byte[] buffer = new byte[Utils.BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                int start = 0;
+                for (int i = 0; i < len; i++) {
+                    if (buffer[i] == 0) {
+                        binary = true;
+                    } else if (buffer[i] == '\n') {
+                        line.write(buffer, start, i + 1 - start);
+                        start = i + 1;
+                        if (n == result.length) {
+                            result = Arrays.copyOf(result, n * 2);
+                        }
+                        result[n++] = intern(line);
+                    }
+                }
+                line.write(buffer, start, len - start);
+            }
+            if (line.size() > 0) {
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, n + 1);
+                }
+                result[n++] = intern(line);
+            }
+            return Arrays.copyOf(result, n);
+        }
+
+        private int intern(ByteArrayOutputStream line) {
+            String s = line.toString(StandardCharsets.ISO_8859_1);
+            line.reset();
+            Integer id = ids.putIfAbsent(s, lines.size());
+            if (id != null) {
+                return id;
+            }
+            lines.add(s);
+            return lines.size() - 1;
+        }
+
+        void write(OutputStream out, int[] file, int start, int end) throws IOException {
+            for (int i = start; i < end; i++) {
+                out.write(lines.get(file[i]).getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+
+        /** Write the lines of one side of a conflict, ending with '\n'
+         *  even if the file doesn't, so the next marker starts a line */
+        void writeSide(OutputStream out, int[] file, int start, int end) throws IOException {
+            write(out, file, start, end);
+            if (end > start && !lines.get(file[end - 1]).endsWith("\n")) {
+                out.write('\n');
+            }
+        }
+    }
+
+    /** An edit of one side, tagged with the side it belongs to */
+    private static class SideEdit {
+        final Diff.Edit edit;
+        final boolean ours;
+
+        SideEdit(Diff.Edit edit, boolean ours) {
+            this.edit = edit;
+            this.ours = ours;
+        }
+    }
+
+    /** Merge ours and theirs, both derived from base, into out.
+     *  Any stream may be null for a file that doesn't exist. Binary files
+     *  are not merged line by line, they become one conflict.
+     *  @return whether there was a conflict
+     */
+    public static boolean merge(InputStream base, InputStream ours, InputStream theirs,
+                                OutputStream out) throws IOException {
+        LineTable table = new LineTable();
+        int[] b = table.read(base);
+        int[] o = table.read(ours);
+        int[] t = table.read(theirs);
+        if (table.binary) {
+            writeConflict(out, table, o, 0, o.length, t, 0, t.length);
+            return true;
+        }
+
+        List<SideEdit> edits = new ArrayList<>();
+        for (Diff.Edit e : Diff.diff(b, o)) {
+            edits.add(new SideEdit(e, true));
+        }
+        for (Diff.Edit e : Diff.diff(b, t)) {
+            edits.add(new SideEdit(e, false));
+        }
+        edits.sort((x, y) -> x.edit.aStart != y.edit.aStart
+                ? Integer.compare(x.edit.aStart, y.edit.aStart)
+                : Integer.compare(x.edit.aEnd, y.edit.aEnd));
+
+        boolean conflict = false;
+        /* the lines of base before pos are written */
+        int pos = 0;
+        int i = 0;
+        while (i < edits.size()) {
+            /* a region: edits that overlap or touch each other */
+            int lo = edits.get(i).edit.aStart;
+            int hi = edits.get(i).edit.aEnd;
+            Diff.Edit firstOurs = null;
+            Diff.Edit lastOurs = null;
+            Diff.Edit firstTheirs = null;
+            Diff.Edit lastTheirs = null;
+            while (i < edits.size() && edits.get(i).edit.aStart <= hi) {
+                SideEdit se = edits.get(i);
+                hi = Math.max(hi, se.edit.aEnd);
+                if (se.ours) {
+                    firstOurs = firstOurs == null ? se.edit : firstOurs;
+                    lastOurs = se.edit;
+                } else {
+                    firstTheirs = firstTheirs == null ? se.edit : firstTheirs;
+                    lastTheirs = se.edit;
+                }
+                i += 1;
+            }
+            table.write(out, b, pos, lo);
+            pos = hi;
+
+            /* the lines each side has in place of base [lo, hi) */
+            int oStart = firstOurs == null ? -1 : firstOurs.bStart - (firstOurs.aStart - lo);
+            int oEnd = lastOurs == null ? -1 : lastOurs.bEnd + (hi - lastOurs.aEnd);
+            int tStart = firstTheirs == null ? -1 : firstTheirs.bStart - (firstTheirs.aStart - lo);
+            int tEnd = lastTheirs == null ? -1 : lastTheirs.bEnd + (hi - lastTheirs.aEnd);
+            if (firstTheirs == null) {
+                table.write(out, o, oStart, oEnd);
+            } else if (firstOurs == null) {
+                table.write(out, t, tStart, tEnd);
+            } else if (Arrays.equals(o, oStart, oEnd, t, tStart, tEnd)) {
+                /* both sides made the same change */
+                table.write(out, o, oStart, oEnd);
+            } else {
+                writeConflict(out, table, o, oStart, oEnd, t, tStart, tEnd);
+                conflict = true;
+            }
+        }
+        table.write(out, b, pos, b.length);
+        return conflict;
+    }
+
+    /** Write ours and theirs whole into out as one conflict, for a file
+     *  changed on one side and deleted on the other. Either stream may be
+     *  null for the side that deleted it. */
+    public static void conflict(InputStream ours, InputStream theirs, OutputStream out)
+            throws IOException {
+        LineTable table = new LineTable();
+        int[] o = table.read(ours);
+        int[] t = table.read(theirs);
+        writeConflict(out, table, o, 0, o.length, t, 0, t.length);
+    }
+
+    private static void writeConflict(OutputStream out, LineTable table,
+                                      int[] o, int oStart, int oEnd,
+                                      int[] t, int tStart, int tEnd) throws IOException {
+        out.write(OURS_MARKER);
+        table.writeSide(out, o, oStart, oEnd);
+        out.write(SEPARATOR);
+        table.writeSide(out, t, tStart, tEnd);
+        out.write(THEIRS_MARKER);
+    }
+}
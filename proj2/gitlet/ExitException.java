@@ -0,0 +1,22 @@
+package gitlet;
+
+/** Thrown by Utils.exit to end the current command. Main catches it and
+ *  exits with its status, or, when a daemon runs the command, only the
+ *  command ends.
+ */
+class ExitException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    /** An ExitException for exit status STATUS. */
+    ExitException(int status) {
+        super(null, null, false, false);
+        this.status = status;
+    }
+
+    int getStatus() {
+        return status;
+    }
+
+}
@@ -0,0 +1,160 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+
+/** Finds the objects nothing refers to any more, for the gc command:
+ *  conflict results that were never committed, commits of deleted
+ *  branches, commits left behind by reset.
+ *
+ *  Every object of the store gets a position in the sorted list of the ids
+ *  of its type, and whether it is reachable is one bit of a BitSet, so
+ *  marking a million objects costs a few megabytes and a binary search
+ *  each. Marking walks the commit graph from the heads, then the tree of
+ *  every reachable commit, skipping trees already marked, so every object
+ *  is looked at once.
+ */
+public class GarbageCollector {
+    private static final byte[] TYPES = {
+        ObjectStore.BLOB, ObjectStore.COMMIT, ObjectStore.TREE, ObjectStore.CHUNK
+    };
+    private static final String[] TYPE_NAMES = {null, "blob", "commit", "tree", "chunk"};
+
+    private final ObjectStore store;
+    private final CommitGraph graph;
+    /** type -> sorted ids of the objects of that type */
+    private final String[][] ids = new String[TYPE_NAMES.length][];
+    /** type -> one bit per position of ids, set if reachable */
+    private final BitSet[] marked = new BitSet[TYPE_NAMES.length];
+
+    public GarbageCollector(ObjectStore store, CommitGraph graph) {
+        this.store = store;
+        this.graph = graph;
+        for (byte type : TYPES) {
+            ids[type] = store.allIDs(type).toArray(new String[0]);
+            marked[type] = new BitSet(ids[type].length);
+        }
+    }
+
+    private int position(byte type, String id) {
+        int pos = Arrays.binarySearch(ids[type], id);
+        return pos < 0 ? -1 : pos;
+    }
+
+    /** Mark object ID of TYPE as reachable
+     *  @return false if it was marked already or isn't in the store */
+    private boolean mark(byte type, String id) {
+        int pos = position(type, id);
+        if (pos < 0 || marked[type].get(pos)) {
+            return false;
+        }
+        marked[type].set(pos);
+        return true;
+    }
+
+    public boolean isReachable(String id) {
+        for (byte type : TYPES) {
+            int pos = position(type, id);
+            if (pos >= 0 && marked[type].get(pos)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Mark everything reachable from the commits HEADS and the blobs
+     *  BLOBS, e.g. the ones staged for addition */
+    public void mark(Collection<String> heads, Collection<String> blobs) {
+        Deque<String> todo = new ArrayDeque<>(heads);
+        List<String> commits = new ArrayList<>();
+        while (!todo.isEmpty()) {
+            String id = todo.pop();
+            if (!mark(ObjectStore.COMMIT, id)) {
+                continue;
+            }
+            commits.add(id);
+            for (String parent : new String[] {graph.firstParent(id), graph.secondParent(id)}) {
+                if (parent != null) {
+                    todo.push(parent);
+                }
+            }
+        }
+
+        List<String> reachedBlobs = new ArrayList<>(blobs);
+        for (String id : commits) {
+            Commit c = Commit.parse(store.read(ObjectStore.COMMIT, id));
+            if (c.getTreeID() != null) {
+                Tree.walk(store, c.getTreeID(), t -> mark(ObjectStore.TREE, t), reachedBlobs::add);
+            } else {
+                /* commits written before trees existed */
+                reachedBlobs.addAll(c.getBlobMap().values());
+            }
+        }
+        boolean hasChunks = ids[ObjectStore.CHUNK].length > 0;
+        for (String id : reachedBlobs) {
+            if (mark(ObjectStore.BLOB, id) && hasChunks) {
+                for (String chunkID : store.chunkIDs(id)) {
+                    mark(ObjectStore.CHUNK, chunkID);
+                }
+            }
+        }
+    }
+
+    /** Return the ids of the commits marked reachable */
+    public List<String> reachableCommits() {
+        List<String> result = new ArrayList<>();
+        BitSet bits = marked[ObjectStore.COMMIT];
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            result.add(ids[ObjectStore.COMMIT][i]);
+        }
+        return result;
+    }
+
+    /** Return every object that isn't reachable, as "[type] [id]" */
+    public List<String> unreachable() {
+        List<String> result = new ArrayList<>();
+        for (byte type : TYPES) {
+            BitSet bits = marked[type];
+            for (int i = bits.nextClearBit(0); i < ids[type].length; i = bits.nextClearBit(i + 1)) {
+                result.add(TYPE_NAMES[type] + " " + ids[type][i]);
+            }
+        }
+        return result;
+    }
+
+    /** Delete the loose objects that aren't reachable. Packed ones stay
+     *  until the next repack that is given isReachable.
+     *  @return the number of objects deleted
+     */
+    public int sweep() {
+        int n = 0;
+        for (byte type : TYPES) {
+            BitSet bits = marked[type];
+            for (int i = bits.nextClearBit(0); i < ids[type].length; i = bits.nextClearBit(i + 1)) {
+                if (store.deleteLoose(type, ids[type][i])) {
+                    n += 1;
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Return whether any unreachable object is a commit */
+    public boolean dropsCommits() {
+        return marked[ObjectStore.COMMIT].cardinality() < ids[ObjectStore.COMMIT].length;
+    }
+
+    /** Return the number of unreachable objects */
+    public int unreachableCount() {
+        int n = 0;
+        for (byte type : TYPES) {
+            n += ids[type].length - marked[type].cardinality();
+        }
+        return n;
+    }
+}
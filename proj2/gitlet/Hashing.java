@@ -0,0 +1,194 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static gitlet.Utils.*;
+
+/** The hash function object ids are made with.
+ *
+ *  A repository picks its algorithm at init (init --hash sha256) and keeps
+ *  the name in .gitlet/hash; repositories without that file use SHA-1, like
+ *  every repository made before it existed. local() is the algorithm of the
+ *  repository in the current working directory.
+ *
+ *  Hashing is on the path of add, status, commit and checkout, so nothing
+ *  is allocated per call that can be reused: every thread keeps its own
+ *  MessageDigest of each algorithm, a scratch array for ASCII strings, which
+ *  every header and id is, and a direct buffer for reading files through
+ *  their FileChannel. Hex is written from a table, one char per nibble.
+ */
+public class Hashing {
+    public static final Hashing SHA1 = new Hashing("sha1", "SHA-1");
+    public static final Hashing SHA256 = new Hashing("sha256", "SHA-256");
+    private static final Hashing[] ALGORITHMS = {SHA1, SHA256};
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /** Longest String copied through the scratch array */
+    private static final int SCRATCH_SIZE = 256;
+    private static final ThreadLocal<byte[]> SCRATCH =
+            ThreadLocal.withInitial(() -> new byte[SCRATCH_SIZE]);
+    private static final ThreadLocal<ByteBuffer> FILE_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    /** Loaded lazily by local() */
+    private static Hashing local;
+
+    private final String name;
+    private final ThreadLocal<MessageDigest> digests;
+
+    private Hashing(String name, String algorithm) {
+        this.name = name;
+        this.digests = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException excp) {
+                throw new IllegalArgumentException("System does not support " + algorithm);
+            }
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Return the length of the ids made by this algorithm, in hex digits */
+    public int idLength() {
+        return digests.get().getDigestLength() * 2;
+    }
+
+    /** Return the algorithm called NAME, or null if there is none */
+    public static Hashing byName(String name) {
+        for (Hashing h : ALGORITHMS) {
+            if (h.name.equals(name)) {
+                return h;
+            }
+        }
+        return null;
+    }
+
+    /** Return the algorithm of the repository whose .gitlet dir is GITLETDIR */
+    public static Hashing of(File gitletDir) {
+        File config = join(gitletDir, "hash");
+        if (!config.exists()) {
+            return SHA1;
+        }
+        Hashing h = byName(readContentsAsString(config).trim());
+        if (h == null) {
+            throw error("Unknown hash algorithm in %s", config.getPath());
+        }
+        return h;
+    }
+
+    /** Return the algorithm of the repository in the current working directory */
+    public static synchronized Hashing local() {
+        if (local == null) {
+            local = of(Repository.GITLET_DIR);
+        }
+        return local;
+    }
+
+    /** Forget the algorithm local() loaded, e.g. before the daemon runs
+     *  a command, which may be run after the repository was made again */
+    static synchronized void reset() {
+        local = null;
+    }
+
+    /** Make H the algorithm of the new repository in the current working
+     *  directory */
+    public static synchronized void initLocal(Hashing h) {
+        if (h != SHA1) {
+            Journal.write(join(Repository.GITLET_DIR, "hash"), h.name);
+        }
+        local = h;
+    }
+
+    /** Return the digest of this thread, ready for a new hash */
+    private MessageDigest digest() {
+        MessageDigest md = digests.get();
+        md.reset();
+        return md;
+    }
+
+    /** Return the hash of the concatenation of VALS, byte arrays and
+     *  Strings, the Strings as UTF-8, in hex */
+    public String hash(Object... vals) {
+        MessageDigest md = digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                update(md, (String) val);
+            } else {
+                throw new IllegalArgumentException("improper type to hash");
+            }
+        }
+        return hex(md.digest());
+    }
+
+    /** Feed S to MD as UTF-8. ASCII strings are copied into the scratch
+     *  array instead of being encoded into a new one. */
+    private static void update(MessageDigest md, String s) {
+        int n = s.length();
+        if (n <= SCRATCH_SIZE) {
+            byte[] scratch = SCRATCH.get();
+            int i = 0;
+            while (i < n) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    break;
+                }
+                scratch[i] = (byte) c;
+                i += 1;
+            }
+            if (i == n) {
+                md.update(scratch, 0, n);
+                return;
+            }
+        }
+        md.update(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Return the hash of the remaining bytes of BUFFER in hex. The buffer
+     *  is consumed. */
+    public String hash(ByteBuffer buffer) {
+        MessageDigest md = digest();
+        md.update(buffer);
+        return hex(md.digest());
+    }
+
+    /** Return the hash of the contents of FILE in hex. The file is read
+     *  through its channel into a direct buffer, so the bytes are not
+     *  copied onto the heap first. */
+    public String hash(File file) {
+        MessageDigest md = digest();
+        ByteBuffer buffer = FILE_BUFFER.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return hex(md.digest());
+    }
+
+    /** Return BYTES in lower case hex */
+    public static String hex(byte[] bytes) {
+        char[] out = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            out[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            out[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(out);
+    }
+}
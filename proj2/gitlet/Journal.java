@@ -0,0 +1,376 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+import static gitlet.Utils.*;
+
+/** Makes what a command writes durable, and the files it changes change
+ *  all together or not at all.
+ *
+ *  Refs, the current branch and the stage index are changed through write
+ *  and delete, which only remember the new contents until the command
+ *  ends; read, exists and plainFilenamesIn already see them. Objects and
+ *  packs are written straight away, renamed into place, and recorded with
+ *  written. At the end of the command, commit():
+ *   1. syncs every object written and the journal, which holds all the
+ *      new contents and a checksum, in one parallel batch;
+ *   2. replaces every changed file by a temporary file renamed over it, so
+ *      each one is either old or new, never half written;
+ *   3. syncs those files and their directories and deletes the journal.
+ *  A crash in 2 or 3 leaves the journal behind and recover(), run by
+ *  checkInit, does 2 and 3 again. A journal whose checksum is wrong was
+ *  never finished, nothing had been changed yet, and it is just deleted.
+ *  A command changing a single file doesn't need the journal: its
+ *  temporary file is synced in the batch of 1 and renamed.
+ *
+ *  Files that are rebuilt from the objects when they are wrong (the commit
+ *  index, commit graph, message index and stat cache) are not synced.
+ *
+ *  Other gitlet processes may change the same files. commit() holds the
+ *  lock of every file it changes (see Locks) and first checks that each one
+ *  is still what this command read, or found when it wrote it, or else it
+ *  changes nothing and reports the conflict. Every process has a journal
+ *  of its own, .gitlet/journal-[random], locked while it is used; recover
+ *  only finishes journals nobody holds.
+ */
+public class Journal {
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final File JOURNAL_FILE = join(Repository.GITLET_DIR,
+            JOURNAL_PREFIX + Long.toHexString(new SecureRandom().nextLong()));
+    private static final int MAGIC = 0x474a4e4c;
+
+    /** file -> its new contents, or null if it is deleted */
+    private static final LinkedHashMap<File, byte[]> pending = new LinkedHashMap<>();
+    /** file -> its contents when this command first used it, or null if it
+     *  didn't exist */
+    private static final HashMap<File, byte[]> base = new HashMap<>();
+    /** files already in place that must be synced before anything in
+     *  pending refers to them */
+    private static final Set<File> written = new LinkedHashSet<>();
+
+    /** Record what KEY holds before this command first uses it */
+    private static void recordBase(File key) {
+        if (!base.containsKey(key) && !pending.containsKey(key)) {
+            base.put(key, key.isFile() ? readContents(key) : null);
+        }
+    }
+
+    /** Replace the contents of FILE by CONTENTS when the command ends */
+    public static synchronized void write(File file, byte[] contents) {
+        File key = file.getAbsoluteFile();
+        recordBase(key);
+        pending.put(key, contents);
+    }
+
+    public static void write(File file, String contents) {
+        write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Delete FILE when the command ends */
+    public static synchronized void delete(File file) {
+        File key = file.getAbsoluteFile();
+        recordBase(key);
+        pending.put(key, null);
+    }
+
+    /** Return the contents of FILE as this command left them so far */
+    public static synchronized byte[] read(File file) {
+        File key = file.getAbsoluteFile();
+        recordBase(key);
+        byte[] contents = pending.containsKey(key) ? pending.get(key) : base.get(key);
+        if (contents == null) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        return contents;
+    }
+
+    public static String readString(File file) {
+        return new String(read(file), StandardCharsets.UTF_8);
+    }
+
+    /** Return whether FILE exists as this command left it so far */
+    public static synchronized boolean exists(File file) {
+        File key = file.getAbsoluteFile();
+        recordBase(key);
+        return (pending.containsKey(key) ? pending.get(key) : base.get(key)) != null;
+    }
+
+    /** Utils.plainFilenamesIn(DIR) as this command left DIR so far, or an
+     *  empty list if DIR doesn't exist */
+    public static synchronized List<String> plainFilenamesIn(File dir) {
+        List<String> files = Utils.plainFilenamesIn(dir);
+        TreeSet<String> names = new TreeSet<>();
+        for (String name : files == null ? List.<String>of() : files) {
+            /* temporary files of other commands */
+            if (!isTempFile(name)) {
+                names.add(name);
+            }
+        }
+        File key = dir.getAbsoluteFile();
+        for (Map.Entry<File, byte[]> e : pending.entrySet()) {
+            if (e.getKey().getParentFile().equals(key)) {
+                if (e.getValue() == null) {
+                    names.remove(e.getKey().getName());
+                } else {
+                    names.add(e.getKey().getName());
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /** Record that FILE has been written in place and must be synced */
+    public static synchronized void written(File file) {
+        written.add(file);
+    }
+
+    /** Forget everything not committed yet */
+    public static synchronized void reset() {
+        pending.clear();
+        base.clear();
+        written.clear();
+    }
+
+    /** Sync what has been written in place so far, e.g. a new pack before
+     *  the files it replaces are deleted */
+    public static synchronized void sync() {
+        force(withDirs(written));
+        written.clear();
+    }
+
+    /** Make everything written durable and apply the changes */
+    public static synchronized void commit() {
+        if (pending.isEmpty()) {
+            sync();
+            return;
+        }
+        List<FileLock> locks = Locks.lockAll(pending.keySet());
+        try {
+            checkUnchanged();
+            apply(withDirs(written));
+        } finally {
+            Locks.unlock(locks);
+        }
+        reset();
+    }
+
+    /** commit() for a command that ended early through exit(STATUS).
+     *  @return the status to exit with: STATUS, or that of commit() if it
+     *  found a conflict and changed nothing */
+    public static int commitAfterExit(int status) {
+        try {
+            commit();
+        } catch (ExitException excp) {
+            return excp.getStatus();
+        }
+        return status;
+    }
+
+    /** Exit with an error, changing nothing, if another command changed a
+     *  file this command is about to change since this one read it */
+    private static void checkUnchanged() {
+        for (File f : pending.keySet()) {
+            byte[] now = f.isFile() ? readContents(f) : null;
+            if (!Arrays.equals(now, base.get(f))) {
+                reset();
+                message("%s was changed by another command.", f.getName());
+                exit(1);
+            }
+        }
+    }
+
+    /** Steps 1 to 3 of commit(), BATCH being what is synced in step 1 */
+    private static void apply(Set<File> batch) {
+        if (pending.size() == 1) {
+            Map.Entry<File, byte[]> e = pending.entrySet().iterator().next();
+            File tmp = e.getValue() == null ? null : writeTemp(e.getKey(), e.getValue());
+            if (tmp != null) {
+                batch.add(tmp);
+            }
+            force(batch);
+            replace(e.getKey(), tmp);
+            force(withDirs(List.of(e.getKey())));
+            return;
+        }
+        try (FileLock lock = Locks.LOCAL.lock(JOURNAL_FILE)) {
+            assert lock.isValid();
+            writeContents(JOURNAL_FILE, encode(pending));
+            batch.add(JOURNAL_FILE);
+            batch.add(JOURNAL_FILE.getParentFile());
+            force(batch);
+            replaceAll(pending);
+            JOURNAL_FILE.delete();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Finish the changes of commands that crashed in commit, if any */
+    public static synchronized void recover() {
+        String[] names = Repository.GITLET_DIR.list((dir, name) -> name.startsWith(JOURNAL_PREFIX));
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            File journal = join(Repository.GITLET_DIR, name);
+            try (FileLock lock = Locks.LOCAL.tryLock(journal)) {
+                /* held by a command still running, or gone once we have it */
+                if (lock == null || !journal.exists()) {
+                    continue;
+                }
+                LinkedHashMap<File, byte[]> changes = decode(readContents(journal));
+                if (changes != null) {
+                    List<FileLock> locks = Locks.lockAll(changes.keySet());
+                    try {
+                        replaceAll(changes);
+                    } finally {
+                        Locks.unlock(locks);
+                    }
+                }
+                journal.delete();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+
+    /** Replace or delete every file of CHANGES, and sync them */
+    private static void replaceAll(Map<File, byte[]> changes) {
+        for (Map.Entry<File, byte[]> e : changes.entrySet()) {
+            File file = e.getKey();
+            replace(file, e.getValue() == null ? null : writeTemp(file, e.getValue()));
+        }
+        force(withDirs(changes.keySet()));
+    }
+
+    /** Write CONTENTS to a temporary file next to FILE */
+    private static File writeTemp(File file, byte[] contents) {
+        file.getParentFile().mkdirs();
+        File tmp = tempFileFor(file);
+        writeContents(tmp, contents);
+        return tmp;
+    }
+
+    /** Rename TMP over FILE, or delete FILE if TMP is null */
+    private static void replace(File file, File tmp) {
+        if (tmp == null) {
+            file.delete();
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return FILES and the directories holding them, which must be synced
+     *  too for new names to be durable */
+    private static Set<File> withDirs(Iterable<File> files) {
+        Set<File> result = new LinkedHashSet<>();
+        for (File f : files) {
+            result.add(f);
+            result.add(f.getAbsoluteFile().getParentFile());
+        }
+        return result;
+    }
+
+    /** fsync FILES, in parallel, so the device can take them together */
+    private static void force(Set<File> files) {
+        files.parallelStream().forEach(f -> {
+            if (!f.exists()) {
+                /* deleted, its directory is synced */
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+                channel.force(true);
+            } catch (IOException excp) {
+                /* not every system can open a directory */
+                if (!f.isDirectory()) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+        });
+    }
+
+    /** The journal: MAGIC | count | count * (path | 0 or 1 | [length | contents]) | CRC32 */
+    private static byte[] encode(Map<File, byte[]> changes) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(changes.size());
+            for (Map.Entry<File, byte[]> e : changes.entrySet()) {
+                out.writeUTF(e.getKey().getPath());
+                out.writeBoolean(e.getValue() != null);
+                if (e.getValue() != null) {
+                    out.writeInt(e.getValue().length);
+                    out.write(e.getValue());
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+        } catch (IOException excp) {
+            throw error("Internal error writing journal.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the changes in the journal BYTES, or null if it is incomplete */
+    private static LinkedHashMap<File, byte[]> decode(byte[] bytes) {
+        if (bytes.length < Long.BYTES) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Long.BYTES);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        LinkedHashMap<File, byte[]> changes = new LinkedHashMap<>();
+        try {
+            in.skipNBytes(bytes.length - Long.BYTES);
+            if (in.readLong() != crc.getValue()) {
+                return null;
+            }
+            in = new DataInputStream(new ByteArrayInputStream(
+                    Arrays.copyOf(bytes, bytes.length - Long.BYTES)));
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                File file = new File(in.readUTF());
+                byte[] contents = null;
+                if (in.readBoolean()) {
+                    contents = new byte[in.readInt()];
+                    in.readFully(contents);
+                }
+                changes.put(file, contents);
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,194 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** Locks that keep gitlet processes working on the same repository out of
+ *  each other's way. They are locks on single bytes of one file,
+ *  .gitlet/lock, taken with FileChannel.lock, so a process that dies takes
+ *  its locks with it.
+ *
+ *  Byte 0 is the repository lock. Every command holds it shared from
+ *  checkInit on, so any number of commands run together; gc, repack and
+ *  reindex, which delete or rewrite what others may be using, hold it
+ *  exclusively, also from checkInit on.
+ *
+ *  Every other byte locks the files whose path hashes to it: a ref, the
+ *  stage index, the commit index or the commit graph. It is only held
+ *  while the file is replaced or appended to, so commands changing
+ *  different branches never wait for each other. Readers don't take it:
+ *  files are replaced by a rename, so a reader sees the old one or the new
+ *  one. Journal checks, under these locks, that a file is still what the
+ *  command read before replacing it.
+ *
+ *  A JVM holds one lock per byte range, and closing any channel of a file
+ *  drops all its locks on the file, so there is one Locks, and one open
+ *  channel, per repository: see of().
+ */
+public class Locks {
+    private static final long REPOSITORY = 0;
+    /** Number of bytes the paths of files are hashed to */
+    private static final int FILE_REGIONS = 1 << 30;
+
+    private static final Map<File, Locks> OPEN = new HashMap<>();
+
+    /** The locks of the repository in the current working directory */
+    public static final Locks LOCAL = of(Repository.GITLET_DIR);
+
+    private final File gitletDir;
+    /** Opened by the first lock */
+    private FileChannel channel;
+    private FileLock repositoryLock;
+
+    private Locks(File gitletDir) {
+        this.gitletDir = gitletDir;
+    }
+
+    /** Return the locks of the repository whose .gitlet dir is GITLETDIR */
+    public static synchronized Locks of(File gitletDir) {
+        return OPEN.computeIfAbsent(gitletDir.getAbsoluteFile(), Locks::new);
+    }
+
+    /** Return the locks of the repository FILE is in: the closest
+     *  directory above it holding an objects directory */
+    public static Locks forFile(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        while (dir != null && !join(dir, "objects").isDirectory()) {
+            dir = dir.getParentFile();
+        }
+        if (dir == null) {
+            throw error("%s is not in a repository", file.getPath());
+        }
+        return of(dir);
+    }
+
+    private synchronized FileChannel channel() {
+        if (channel == null) {
+            try {
+                channel = FileChannel.open(join(gitletDir, "lock").toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        return channel;
+    }
+
+    /** Hold the repository lock, EXCLUSIVE or shared, until release.
+     *  A shared lock isn't made exclusive: it would have to be given up
+     *  first, and another command could change the repository in between,
+     *  under what this one has read. Take it exclusive from the start. */
+    public synchronized void lockRepository(boolean exclusive) {
+        if (repositoryLock != null) {
+            if (exclusive && repositoryLock.isShared()) {
+                throw error("The repository lock is already held shared");
+            }
+            return;
+        }
+        try {
+            repositoryLock = channel().lock(REPOSITORY, 1, !exclusive);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Give up the repository lock */
+    public synchronized void release() {
+        if (repositoryLock == null) {
+            return;
+        }
+        try {
+            repositoryLock.release();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        repositoryLock = null;
+    }
+
+    /** Give up the repository locks of every repository, e.g. when the
+     *  daemon has finished a command */
+    public static synchronized void releaseAll() {
+        for (Locks locks : OPEN.values()) {
+            locks.release();
+        }
+    }
+
+    /** The byte that locks FILE, from its path in the .gitlet dir, which
+     *  every process agrees on */
+    private long regionOf(File file) {
+        String path = gitletDir.toPath().relativize(file.getAbsoluteFile().toPath())
+                .toString().replace(File.separatorChar, '/');
+        return 1 + (path.hashCode() & (FILE_REGIONS - 1));
+    }
+
+    /** Lock FILE exclusively, waiting for whoever holds it. Close the
+     *  result to unlock it. */
+    public FileLock lock(File file) {
+        try {
+            return channel().lock(regionOf(file), 1, false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Lock FILE exclusively if nobody holds it
+     *  @return the lock, or null if it is held */
+    public FileLock tryLock(File file) {
+        try {
+            return channel().tryLock(regionOf(file), 1, false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Lock every file of FILES exclusively, in the same order in every
+     *  process, so two of them never wait for each other. Files whose
+     *  paths hash to the same byte share its lock.
+     *  @return the locks, to be given to unlock
+     */
+    public static List<FileLock> lockAll(Collection<File> files) {
+        TreeMap<String, TreeSet<Long>> regions = new TreeMap<>();
+        for (File f : files) {
+            Locks locks = forFile(f);
+            regions.computeIfAbsent(locks.gitletDir.getPath(), k -> new TreeSet<>())
+                    .add(locks.regionOf(f));
+        }
+        List<FileLock> result = new ArrayList<>();
+        try {
+            for (Map.Entry<String, TreeSet<Long>> e : regions.entrySet()) {
+                FileChannel c = of(new File(e.getKey())).channel();
+                for (long region : e.getValue()) {
+                    result.add(c.lock(region, 1, false));
+                }
+            }
+        } catch (IOException excp) {
+            unlock(result);
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Release LOCKS */
+    public static void unlock(List<FileLock> locks) {
+        for (FileLock lock : locks) {
+            try {
+                lock.release();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+    }
+}
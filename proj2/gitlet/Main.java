@@ -1,8 +1,10 @@
 package gitlet;
 
 
+import java.util.Arrays;
+import java.util.List;
+
 import static gitlet.Utils.*;
-import static java.lang.System.exit;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author TODO
@@ -13,6 +15,20 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        CommitCache.enableDebugOutput();
+        try {
+            run(args);
+        } catch (ExitException excp) {
+            /* what was written before exit is kept, as it always was */
+            System.exit(Journal.commitAfterExit(excp.getStatus()));
+        }
+    }
+
+    /** Run the command ARGS. Ends by throwing an ExitException where main
+     *  used to exit, so the daemon can run commands one after another.
+     * @param args
+     */
+    static void run(String[] args) {
         if(args.length == 0) {
             System.out.println("Please enter a command.");
             exit(0);
@@ -20,13 +36,22 @@ public class Main {
         String firstArg = args[0];
         switch(firstArg) {
             case "init":
-                argsNumCheck(args, 1);
-                Repository.initRepository();
+                Hashing hashing = Hashing.SHA1;
+                if (args.length == 3 && args[1].equals("--hash")) {
+                    hashing = Hashing.byName(args[2]);
+                    if (hashing == null) {
+                        message("Unknown hash algorithm.");
+                        exit(0);
+                    }
+                } else {
+                    argsNumCheck(args, 1);
+                }
+                Repository.initRepository(hashing);
                 break;
             case "add":
                 Repository.checkInit();
-                argsNumCheck(args, 2);
-                Repository.addStage(args[1]);
+                argsMinCheck(args, 2);
+                Repository.addStage(Arrays.asList(args).subList(1, args.length));
                 break;
             case "commit":
                 Repository.checkInit();
@@ -42,24 +67,38 @@ public class Main {
                 break;
             case "rm":
                 Repository.checkInit();
-                argsNumCheck(args, 2);
-                Repository.removeStage(args[1]);
+                argsMinCheck(args, 2);
+                Repository.removeStage(Arrays.asList(args).subList(1, args.length));
                 break;
             case "log":
-                Repository.checkInit();
-                argsNumCheck(args, 1);
-                Repository.log();
-                break;
             case "global-log":
                 Repository.checkInit();
-                argsNumCheck(args, 1);
-                Repository.global_log();
+                runLog(args);
                 break;
             case "find":
                 Repository.checkInit();
+                if (args.length == 3 && args[1].equals("-w")) {
+                    Repository.findWords(args[2]);
+                    break;
+                }
                 argsNumCheck(args, 2);
                 Repository.find(args[1]);
                 break;
+            case "diff":
+                Repository.checkInit();
+                boolean stat = args.length > 1 && args[1].equals("--stat");
+                List<String> commits = Arrays.asList(args).subList(stat ? 2 : 1, args.length);
+                if (commits.size() > 2) {
+                    message("Incorrect operands.");
+                    exit(0);
+                }
+                Repository.diff(commits, stat);
+                break;
+            case "reindex":
+                Repository.checkInit(true);
+                argsNumCheck(args, 1);
+                Repository.reindex();
+                break;
             case "status":
                 Repository.checkInit();
                 argsNumCheck(args, 1);
@@ -104,7 +143,55 @@ public class Main {
                 argsNumCheck(args, 2);
                 Repository.reset(args[1]);
                 break;
+            case "pack-refs":
+                Repository.checkInit();
+                argsNumCheck(args, 1);
+                Repository.packRefs();
+                break;
+            case "repack":
+                Repository.checkInit(true);
+                argsNumCheck(args, 1);
+                Repository.repack();
+                break;
+            case "gc":
+                runGc(args);
+                break;
+            case "add-remote":
+                Repository.checkInit();
+                argsNumCheck(args, 3);
+                Repository.addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                Repository.checkInit();
+                argsNumCheck(args, 2);
+                Repository.removeRemote(args[1]);
+                break;
+            case "fetch":
+                Repository.checkInit();
+                argsNumCheck(args, 3);
+                Repository.fetch(args[1], args[2]);
+                break;
+            case "push":
+                Repository.checkInit();
+                argsNumCheck(args, 3);
+                Repository.push(args[1], args[2]);
+                break;
+            case "pull":
+                Repository.checkInit();
+                argsNumCheck(args, 3);
+                Repository.pull(args[1], args[2]);
+                break;
+            case "daemon":
+                Repository.checkInit();
+                if (args.length == 2 && args[1].equals("stop")) {
+                    Daemon.stop();
+                } else {
+                    argsNumCheck(args, 1);
+                    Daemon.serve();
+                }
+                break;
             case "merge":
+                Repository.checkInit();
                 argsNumCheck(args, 2);
                 Repository.merge(args[1]);
                 break;
@@ -112,6 +199,9 @@ public class Main {
                 message("No command with that name exists.");
                 exit(0);
         }
+        Stage.save();
+        StatCache.LOCAL.save();
+        Journal.commit();
     }
 
     public static void argsNumCheck(String[] args, int validNum) {
@@ -120,4 +210,58 @@ public class Main {
             exit(0);
         }
     }
+
+    /** Parse the options of log and global-log, [-n <limit>] [--oneline],
+     * and run the command
+     * @param args
+     */
+    private static void runLog(String[] args) {
+        int limit = -1;
+        boolean oneline = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--oneline")) {
+                oneline = true;
+            } else if (args[i].equals("-n") && i + 1 < args.length
+                    && args[i + 1].matches("\\d{1,9}")) {
+                limit = Integer.parseInt(args[i + 1]);
+                i += 1;
+            } else {
+                message("Incorrect operands.");
+                exit(0);
+            }
+        }
+        if (args[0].equals("log")) {
+            Repository.log(limit, oneline);
+        } else {
+            Repository.global_log(limit, oneline);
+        }
+    }
+
+    /** Parse the options of gc, [--dry-run] [--repack], and run it
+     * @param args
+     */
+    private static void runGc(String[] args) {
+        boolean dryRun = false;
+        boolean repack = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--dry-run")) {
+                dryRun = true;
+            } else if (args[i].equals("--repack")) {
+                repack = true;
+            } else {
+                message("Incorrect operands.");
+                exit(0);
+            }
+        }
+        /* nothing may write an object while unreachable ones are deleted */
+        Repository.checkInit(!dryRun);
+        Repository.gc(dryRun, repack);
+    }
+
+    public static void argsMinCheck(String[] args, int minNum) {
+        if(args.length < minNum) {
+            message("Incorrect operands.");
+            exit(0);
+        }
+    }
 }
@@ -0,0 +1,384 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** An inverted index from commit messages to commit ids, used by find.
+ *
+ *  Every commit adds one record for its whole message, keyed by the sha1
+ *  of the message so records stay small, and one for each distinct word
+ *  of it (lower case, split at anything that isn't a letter
+ *  or a digit). Records are spread over 256 buckets by the hash of their
+ *  key, and like CommitIndex each bucket is a sorted file plus a tail:
+ *      .gitlet/message-index/[2 hex chars]        "GMIX" | count |
+ *                               count * offset | records, sorted
+ *      .gitlet/message-index/[2 hex chars]-tail   records, appended
+ *      record = kind byte | key length | key (UTF-8) | id length | commit id
+ *  Sorted records are ordered by kind, key and commit id, so a lookup
+ *  binary searches the memory-mapped bucket through its offsets and reads
+ *  only the matching records, plus the small tail. add appends to the
+ *  tails, under the lock of the bucket; a tail longer than TAIL_BYTES is
+ *  merged into its bucket.
+ *
+ *  The index is derived data. If it is missing it is built from the commit
+ *  index on the first lookup; the reindex command rebuilds it, e.g. after
+ *  an older gitlet made commits without it.
+ */
+public class MessageIndex {
+    private static final byte MESSAGE = 1;
+    private static final byte WORD = 2;
+    /** Longer words are not indexed */
+    private static final int MAX_WORD = 256;
+    private static final byte[] MAGIC = "GMIX".getBytes(StandardCharsets.US_ASCII);
+    /** magic + count */
+    private static final int HEADER = 8;
+    private static final int BUCKETS = 256;
+    /** A tail is merged into its bucket once it is longer than this */
+    private static final int TAIL_BYTES = 8 << 10;
+    /** Where the first, unsorted, format was kept; dropped by rebuild */
+    private static final String OLD_DIR = "msgindex";
+
+    /** The message index of the repository in the current working directory */
+    public static final MessageIndex LOCAL =
+            new MessageIndex(join(Repository.GITLET_DIR, "message-index"), CommitIndex.LOCAL);
+
+    /** One record of a bucket */
+    private static class Record {
+        final byte kind;
+        final byte[] key;
+        final byte[] id;
+
+        Record(byte kind, byte[] key, byte[] id) {
+            this.kind = kind;
+            this.key = key;
+            this.id = id;
+        }
+
+        int size() {
+            return 1 + 2 + key.length + 1 + id.length;
+        }
+    }
+
+    private static final Comparator<Record> ORDER = (a, b) -> {
+        if (a.kind != b.kind) {
+            return Byte.compare(a.kind, b.kind);
+        }
+        int diff = Arrays.compareUnsigned(a.key, b.key);
+        return diff != 0 ? diff : Arrays.compareUnsigned(a.id, b.id);
+    };
+
+    private final File dir;
+    private final CommitIndex index;
+
+    public MessageIndex(File dir, CommitIndex index) {
+        this.dir = dir;
+        this.index = index;
+    }
+
+    private static String bucketOf(byte kind, String key) {
+        int h = (key.hashCode() * 31 + kind) & 0xff;
+        return Integer.toHexString(h | 0x100).substring(1);
+    }
+
+    private File tailOf(File bucket) {
+        return join(dir, bucket.getName() + "-tail");
+    }
+
+    /** Split message into its distinct lower case words */
+    private static Set<String> words(String message) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String w : message.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!w.isEmpty() && w.length() <= MAX_WORD) {
+                result.add(w);
+            }
+        }
+        return result;
+    }
+
+    /** Add the records of one commit to the buckets they belong to */
+    private static void addRecords(Map<String, List<Record>> buckets,
+                                   String commitID, String message) {
+        addRecord(buckets, MESSAGE, sha1(message), commitID);
+        for (String w : words(message)) {
+            addRecord(buckets, WORD, w, commitID);
+        }
+    }
+
+    private static void addRecord(Map<String, List<Record>> buckets,
+                                  byte kind, String key, String commitID) {
+        buckets.computeIfAbsent(bucketOf(kind, key), k -> new ArrayList<>())
+                .add(new Record(kind, key.getBytes(StandardCharsets.UTF_8),
+                        commitID.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static void writeRecord(DataOutputStream out, Record r) throws IOException {
+        out.writeByte(r.kind);
+        out.writeShort(r.key.length);
+        out.write(r.key);
+        out.writeByte(r.id.length);
+        out.write(r.id);
+    }
+
+    /** Read the records from BUF until its end into RESULT */
+    private static void readRecords(ByteBuffer buf, List<Record> result) {
+        while (buf.hasRemaining()) {
+            byte kind = buf.get();
+            byte[] key = new byte[buf.getShort() & 0xffff];
+            buf.get(key);
+            byte[] id = new byte[buf.get() & 0xff];
+            buf.get(id);
+            result.add(new Record(kind, key, id));
+        }
+    }
+
+    /** Record a newly saved commit. Does nothing before the index is built,
+     *  the build will see the commit. */
+    public void add(String commitID, String message) {
+        if (!dir.isDirectory()) {
+            return;
+        }
+        Map<String, List<Record>> buckets = new HashMap<>();
+        addRecords(buckets, commitID, message);
+        List<File> files = new ArrayList<>();
+        for (String name : buckets.keySet()) {
+            files.add(join(dir, name));
+        }
+        List<FileLock> locks = Locks.lockAll(files);
+        try {
+            for (Map.Entry<String, List<Record>> e : buckets.entrySet()) {
+                appendTail(join(dir, e.getKey()), e.getValue());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            Locks.unlock(locks);
+        }
+    }
+
+    /** Append RECORDS to the tail of BUCKET, merging it into the bucket if
+     *  it gets too long. The caller holds the lock of the bucket. */
+    private void appendTail(File bucket, List<Record> records) throws IOException {
+        File tail = tailOf(bucket);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tail.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            for (Record r : records) {
+                writeRecord(out, r);
+            }
+        }
+        if (tail.length() > TAIL_BYTES) {
+            List<Record> all = new ArrayList<>();
+            readRecords(ByteBuffer.wrap(readContents(tail)), all);
+            if (bucket.exists()) {
+                ByteBuffer sorted = ByteBuffer.wrap(readContents(bucket));
+                int count = checkBucket(sorted, bucket);
+                sorted.position(HEADER + 4 * count);
+                readRecords(sorted, all);
+            }
+            writeBucket(bucket, all);
+        }
+    }
+
+    /** Check the header of the bucket in BUF and return its record count */
+    private static int checkBucket(ByteBuffer buf, File bucket) {
+        byte[] magic = new byte[MAGIC.length];
+        if (buf.limit() < HEADER) {
+            throw error("Corrupted message index %s, run reindex.", bucket.getName());
+        }
+        buf.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw error("Corrupted message index %s, run reindex.", bucket.getName());
+        }
+        return buf.getInt(4);
+    }
+
+    /** Write RECORDS, sorted, as BUCKET and drop its tail, or drop both if
+     *  there are none. The caller holds the lock of the bucket. */
+    private void writeBucket(File bucket, List<Record> records) {
+        if (records.isEmpty()) {
+            bucket.delete();
+            tailOf(bucket).delete();
+            return;
+        }
+        records.sort(ORDER);
+        File tmp = tempFileFor(bucket);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmp.toPath()), BUFFER_SIZE))) {
+            out.write(MAGIC);
+            out.writeInt(records.size());
+            int offset = HEADER + 4 * records.size();
+            for (Record r : records) {
+                out.writeInt(offset);
+                offset += r.size();
+            }
+            for (Record r : records) {
+                writeRecord(out, r);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), bucket.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        /* the bucket holds the tail now: a reader reads the tail first, so
+         * it sees these records at least once */
+        tailOf(bucket).delete();
+    }
+
+    /** Build the index again from every commit in the commit index
+     *  @return the number of commits indexed
+     */
+    public int rebuild() {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < BUCKETS; i++) {
+            files.add(join(dir, Integer.toHexString(i | 0x100).substring(1)));
+        }
+        List<FileLock> locks = Locks.lockAll(files);
+        try {
+            Map<String, List<Record>> buckets = new HashMap<>();
+            List<String> ids = index.allIDs();
+            for (String id : ids) {
+                addRecords(buckets, id, Commit.peek(id).getMessage());
+            }
+            dir.mkdirs();
+            for (File bucket : files) {
+                writeBucket(bucket, buckets.getOrDefault(bucket.getName(), new ArrayList<>()));
+            }
+            File old = join(dir.getParentFile(), OLD_DIR);
+            List<String> oldNames = plainFilenamesIn(old);
+            if (oldNames != null) {
+                for (String name : oldNames) {
+                    join(old, name).delete();
+                }
+                old.delete();
+            }
+            return ids.size();
+        } finally {
+            Locks.unlock(locks);
+        }
+    }
+
+    /** Return the ids of the commits whose record of KIND has KEY */
+    private TreeSet<String> lookup(byte kind, String key) {
+        if (!dir.isDirectory()) {
+            rebuild();
+        }
+        TreeSet<String> result = new TreeSet<>();
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        File bucket = join(dir, bucketOf(kind, key));
+        /* the tail first: a merge writes the bucket before dropping it */
+        File tail = tailOf(bucket);
+        if (tail.exists()) {
+            List<Record> records = new ArrayList<>();
+            readRecords(ByteBuffer.wrap(readContents(tail)), records);
+            for (Record r : records) {
+                if (r.kind == kind && Arrays.equals(r.key, keyBytes)) {
+                    result.add(new String(r.id, StandardCharsets.US_ASCII));
+                }
+            }
+        }
+        if (bucket.exists()) {
+            lookupSorted(bucket, kind, keyBytes, result);
+        }
+        return result;
+    }
+
+    /** Add the ids of the records of KIND with KEY in the sorted BUCKET
+     *  to RESULT */
+    private static void lookupSorted(File bucket, byte kind, byte[] key, TreeSet<String> result) {
+        MappedByteBuffer buf;
+        try (RandomAccessFile raf = new RandomAccessFile(bucket, "r");
+             FileChannel channel = raf.getChannel()) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        int count = checkBucket(buf, bucket);
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(buf, buf.getInt(HEADER + 4 * mid), kind, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < count; i++) {
+            int offset = buf.getInt(HEADER + 4 * i);
+            if (compareAt(buf, offset, kind, key) != 0) {
+                break;
+            }
+            int idOffset = offset + 3 + key.length;
+            byte[] id = new byte[buf.get(idOffset) & 0xff];
+            buf.get(idOffset + 1, id);
+            result.add(new String(id, StandardCharsets.US_ASCII));
+        }
+    }
+
+    /** Compare the kind and key of the record at OFFSET of BUF with KIND
+     *  and KEY */
+    private static int compareAt(ByteBuffer buf, int offset, byte kind, byte[] key) {
+        byte k = buf.get(offset);
+        if (k != kind) {
+            return Byte.compare(k, kind);
+        }
+        int length = buf.getShort(offset + 1) & 0xffff;
+        for (int i = 0; i < length && i < key.length; i++) {
+            int diff = (buf.get(offset + 3 + i) & 0xff) - (key[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    /** Return the ids of all commits with exactly MESSAGE, in sorted order */
+    public List<String> findMessage(String message) {
+        return new ArrayList<>(lookup(MESSAGE, sha1(message)));
+    }
+
+    /** Return the ids of all commits whose message contains every word of
+     *  QUERY, ignoring case, in sorted order */
+    public List<String> findWords(String query) {
+        TreeSet<String> result = null;
+        for (String w : words(query)) {
+            TreeSet<String> ids = lookup(WORD, w);
+            if (result == null) {
+                result = ids;
+            } else {
+                result.retainAll(ids);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result == null ? new ArrayList<>() : new ArrayList<>(result);
+    }
+}
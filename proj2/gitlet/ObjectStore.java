@@ -0,0 +1,615 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/** The object database of a repository.
+ *
+ *  Objects live in two places:
+ *  1. loose objects, one file each, the original layout:
+ *      objects/blobs/[id]
+ *      objects/commits/[first 2 chars]/[id]
+ *      objects/trees/[first 2 chars]/[id]
+ *      objects/chunks/[first 2 chars]/[id]
+ *  2. packs under objects/packs, created by the repack command, where
+ *     versions of the same file are stored as deltas of each other
+ *
+ *  Reads look at the loose objects first and then at the packs, so
+ *  repositories created before packs existed keep working unchanged.
+ *
+ *  Objects are stored compressed (see Utils.writeCompressed). Objects
+ *  written before compression existed are plain bytes and are still read.
+ *
+ *  Large blobs are stored as a list of chunks (see writeChunked), which
+ *  read and open put back together, so callers never see the chunks.
+ */
+public class ObjectStore {
+    public static final byte BLOB = 1;
+    public static final byte COMMIT = 2;
+    public static final byte TREE = 3;
+    public static final byte CHUNK = 4;
+
+    /** Blobs of at least this many bytes are stored as chunks */
+    public static final long CHUNK_THRESHOLD = 1 << 20;
+
+    /** Longest chain of deltas repack builds, bounds the work of a read */
+    public static final int MAX_DEPTH = 50;
+    /** Number of earlier versions of a path tried as the base of a delta */
+    private static final int WINDOW = 10;
+
+    /** The object store of the repository in the current working directory */
+    public static final ObjectStore LOCAL = new ObjectStore(Repository.OBJECTS_DIR);
+
+    private final File blobsDir;
+    private final File commitsDir;
+    private final File treesDir;
+    private final File chunksDir;
+    private final File packsDir;
+    /** Packs are loaded lazily, the first time a loose lookup misses */
+    private List<Pack> packs;
+    /** fileStamp of packsDir when packs were loaded */
+    private String packsStamp;
+
+    public ObjectStore(File objectsDir) {
+        blobsDir = join(objectsDir, "blobs");
+        commitsDir = join(objectsDir, "commits");
+        treesDir = join(objectsDir, "trees");
+        chunksDir = join(objectsDir, "chunks");
+        packsDir = join(objectsDir, "packs");
+    }
+
+    private synchronized List<Pack> getPacks() {
+        if (packs == null) {
+            packsStamp = fileStamp(packsDir);
+            packs = Pack.loadAll(packsDir);
+        }
+        return packs;
+    }
+
+    /** Drop the loaded packs if a pack was added or deleted since they
+     *  were loaded, e.g. by another process. Used by the daemon, which
+     *  keeps them loaded from one command to the next.
+     *  @return whether the loaded packs were dropped */
+    public synchronized boolean refresh() {
+        if (packs != null && !fileStamp(packsDir).equals(packsStamp)) {
+            packs = null;
+            return true;
+        }
+        return false;
+    }
+
+    /** Forget the loaded packs, after adding or deleting one */
+    private synchronized void dropPacks() {
+        packs = null;
+    }
+
+    /** The directory of the loose objects of TYPE, split by the first
+     *  2 chars of their ids, or null for blobs, which aren't split */
+    private File fanoutDir(byte type) {
+        switch (type) {
+            case COMMIT:
+                return commitsDir;
+            case TREE:
+                return treesDir;
+            case CHUNK:
+                return chunksDir;
+            default:
+                return null;
+        }
+    }
+
+    /** Path of the loose object ID of the given TYPE */
+    public File loosePath(byte type, String id) {
+        File fanout = fanoutDir(type);
+        if (fanout != null) {
+            return join(fanout, id.substring(0, 2), id);
+        }
+        return join(blobsDir, id);
+    }
+
+    /** Check whether object ID of the given TYPE exists, loose or packed */
+    public boolean contains(byte type, String id) {
+        if (loosePath(type, id).exists()) {
+            return true;
+        }
+        for (Pack p : getPacks()) {
+            if (p.typeOf(id) == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Read the content of object ID, or return null if it doesn't exist.
+     *  A blob stored as chunks is put back together. */
+    public byte[] read(byte type, String id) {
+        byte[] content = readObject(type, id);
+        if (type != BLOB || content == null || !isChunkList(content)) {
+            return content;
+        }
+        try (InputStream in = openChunks(new ByteArrayInputStream(content))) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Open a stream over the content of object ID, or return null if it
+     *  doesn't exist. The content is decompressed while it is read, and a
+     *  blob stored as chunks is read chunk by chunk. */
+    public InputStream open(byte type, String id) {
+        InputStream in = openObject(type, id);
+        if (type != BLOB || in == null) {
+            return in;
+        }
+        try {
+            PushbackInputStream stream = new PushbackInputStream(in, CHUNKED_MAGIC.length);
+            byte[] header = stream.readNBytes(CHUNKED_MAGIC.length);
+            stream.unread(header);
+            if (Arrays.equals(header, CHUNKED_MAGIC)) {
+                return openChunks(stream);
+            }
+            return stream;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static boolean isChunkList(byte[] content) {
+        return content.length >= CHUNKED_MAGIC.length && Arrays.equals(
+                content, 0, CHUNKED_MAGIC.length, CHUNKED_MAGIC, 0, CHUNKED_MAGIC.length);
+    }
+
+    /** Return the chunk ids of the chunk list read from LIST, in order */
+    private static List<String> readChunkList(InputStream list) throws IOException {
+        List<String> ids = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(list, StandardCharsets.US_ASCII))) {
+            reader.skip(CHUNKED_MAGIC.length);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ids.add(line.substring(0, line.indexOf(' ')));
+            }
+        }
+        return ids;
+    }
+
+    /** Return the ids of the chunks of blob ID, or an empty list if it
+     *  isn't stored as chunks. Only the start of a whole blob is read. */
+    public List<String> chunkIDs(String id) {
+        try (InputStream in = openObject(BLOB, id)) {
+            if (in == null) {
+                return new ArrayList<>();
+            }
+            PushbackInputStream stream = new PushbackInputStream(in, CHUNKED_MAGIC.length);
+            byte[] header = stream.readNBytes(CHUNKED_MAGIC.length);
+            stream.unread(header);
+            if (!Arrays.equals(header, CHUNKED_MAGIC)) {
+                return new ArrayList<>();
+            }
+            return readChunkList(stream);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the size of the content of blob ID, or -1 if it doesn't
+     *  exist. For a blob stored as chunks only the chunk list is read,
+     *  a whole blob is read through without being kept. */
+    public long blobSize(String id) {
+        try (InputStream in = openObject(BLOB, id)) {
+            if (in == null) {
+                return -1;
+            }
+            byte[] header = in.readNBytes(CHUNKED_MAGIC.length);
+            if (!Arrays.equals(header, CHUNKED_MAGIC)) {
+                return header.length + in.transferTo(OutputStream.nullOutputStream());
+            }
+            long size = 0;
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(in, StandardCharsets.US_ASCII));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                size += Long.parseLong(line.substring(line.indexOf(' ') + 1));
+            }
+            return size;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return a stream over the chunks of the chunk list read from LIST.
+     *  Each chunk is only opened when the one before it is done. */
+    private InputStream openChunks(InputStream list) throws IOException {
+        List<String> ids = readChunkList(list);
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < ids.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String chunkID = ids.get(next++);
+                InputStream chunk = openObject(CHUNK, chunkID);
+                if (chunk == null) {
+                    throw error("Chunk %s doesn't exist", chunkID);
+                }
+                return chunk;
+            }
+        });
+    }
+
+    /** Read the stored content of object ID, a chunk list for a chunked
+     *  blob, or return null if it doesn't exist */
+    private byte[] readObject(byte type, String id) {
+        File path = loosePath(type, id);
+        if (path.exists()) {
+            return decompress(readContents(path));
+        }
+        for (Pack p : getPacks()) {
+            if (p.typeOf(id) == type) {
+                return p.read(id);
+            }
+        }
+        return null;
+    }
+
+    /** Open a stream over the stored content of object ID, see readObject */
+    private InputStream openObject(byte type, String id) {
+        File path = loosePath(type, id);
+        try {
+            if (path.exists()) {
+                return decompress(new BufferedInputStream(
+                        Files.newInputStream(path.toPath()), BUFFER_SIZE));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (Pack p : getPacks()) {
+            if (p.typeOf(id) == type) {
+                return p.open(id);
+            }
+        }
+        return null;
+    }
+
+    /** Write object ID with content DATA as a loose object unless it
+     *  already exists */
+    public void write(byte type, String id, byte[] data) {
+        write(type, id, new ByteArrayInputStream(data));
+    }
+
+    /** Write object ID with the content read from IN as a loose object
+     *  unless it already exists. The object is compressed into a temporary
+     *  file and renamed into place, so a half written object is never seen.
+     *  Each writer gets its own temporary file, so several threads may write
+     *  objects, even the same one, at once. */
+    public void write(byte type, String id, InputStream in) {
+        if (contains(type, id)) {
+            try {
+                in.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return;
+        }
+        File path = loosePath(type, id);
+        path.getParentFile().mkdirs();
+        try {
+            /* named so that no id prefix matches it, see commitIDsWithPrefix */
+            File tmp = tempFileFor(path);
+            writeCompressed(tmp, in);
+            /* atomic, another process may be writing the same object */
+            Files.move(tmp.toPath(), path.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Journal.written(path);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Write blob ID with the content read from IN as a list of chunks,
+     *  unless it already exists. IN is cut into chunks by content (see
+     *  Chunker) and every chunk is an object of its own, so the chunks a
+     *  file shares with other files or other versions of it are stored once,
+     *  and a large file changed in one place only writes the few chunks
+     *  around the change. The blob itself is the chunk list:
+     *      CHUNKED_MAGIC | "[chunkID] [length]\n" for each chunk in order
+     */
+    public void writeChunked(String id, InputStream in) {
+        if (contains(BLOB, id)) {
+            try {
+                in.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            return;
+        }
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        list.writeBytes(CHUNKED_MAGIC);
+        try (InputStream src = in) {
+            Chunker chunker = new Chunker(src);
+            int length;
+            while ((length = chunker.next()) >= 0) {
+                byte[] chunk = Arrays.copyOfRange(chunker.buffer(),
+                        chunker.offset(), chunker.offset() + length);
+                /* prefixed, so a chunk never shares an id with a blob */
+                String chunkID = hash("chunk ", chunk);
+                write(CHUNK, chunkID, chunk);
+                list.writeBytes((chunkID + " " + length + "\n")
+                        .getBytes(StandardCharsets.US_ASCII));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        write(BLOB, id, list.toByteArray());
+    }
+
+    /** Copy OBJECTS (id -> type) from this store into DEST as one new pack,
+     *  stored as they are here. Nothing is written if OBJECTS is empty. */
+    public void copyTo(ObjectStore dest, Map<String, Byte> objects) {
+        if (objects.isEmpty()) {
+            return;
+        }
+        try (Pack.Writer pack = new Pack.Writer(dest.packsDir)) {
+            for (Map.Entry<String, Byte> e : objects.entrySet()) {
+                String id = e.getKey();
+                File path = loosePath(e.getValue(), id);
+                byte[] stored;
+                if (path.exists()) {
+                    stored = readContents(path);
+                } else {
+                    byte[] content = readObject(e.getValue(), id);
+                    if (content == null) {
+                        throw error("Object %s doesn't exist", id);
+                    }
+                    stored = compress(content);
+                }
+                pack.add(id, e.getValue(), stored);
+            }
+            pack.finish();
+        }
+        dest.dropPacks();
+    }
+
+    /* COMMIT LOOKUP */
+
+    /** Return all commit ids starting with PREFIX, in sorted order */
+    public List<String> commitIDsWithPrefix(String prefix) {
+        TreeSet<String> result = new TreeSet<>();
+        if (prefix.length() >= 2) {
+            List<String> loose = plainFilenamesIn(join(commitsDir, prefix.substring(0, 2)));
+            if (loose != null) {
+                for (String id : loose) {
+                    if (id.startsWith(prefix)) {
+                        result.add(id);
+                    }
+                }
+            }
+        } else {
+            for (String id : allLoose(COMMIT)) {
+                if (id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+        }
+        for (Pack p : getPacks()) {
+            result.addAll(p.idsWithPrefix(prefix, COMMIT));
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Return the ids of every object of TYPE, loose or packed, in sorted
+     *  order */
+    public List<String> allIDs(byte type) {
+        TreeSet<String> result = new TreeSet<>(allLoose(type));
+        for (Pack p : getPacks()) {
+            for (int i = 0; i < p.size(); i++) {
+                if (p.typeAt(i) == type) {
+                    result.add(p.idAt(i));
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Delete the loose object ID of TYPE
+     *  @return whether there was one */
+    public boolean deleteLoose(byte type, String id) {
+        return loosePath(type, id).delete();
+    }
+
+    /** Return the ids of every commit in the store, in sorted order */
+    public List<String> allCommitIDs() {
+        return commitIDsWithPrefix("");
+    }
+
+    /** Return the ids of all loose objects of the given TYPE */
+    private List<String> allLoose(byte type) {
+        List<String> result = new ArrayList<>();
+        File fanout = fanoutDir(type);
+        if (fanout != null) {
+            File[] dirs = fanout.listFiles(File::isDirectory);
+            if (dirs != null) {
+                for (File dir : dirs) {
+                    result.addAll(plainFilenamesIn(dir));
+                }
+            }
+        } else {
+            List<String> blobs = plainFilenamesIn(blobsDir);
+            if (blobs != null) {
+                result.addAll(blobs);
+            }
+        }
+        /* leftovers of an interrupted write */
+        result.removeIf(id -> id.endsWith(".tmp"));
+        return result;
+    }
+
+    /* PACKING */
+
+    /** A recent version of a path, tried as the base of a delta */
+    private static class DeltaBase {
+        final String id;
+        final Delta.Index index;
+        final int depth;
+
+        DeltaBase(String id, Delta.Index index, int depth) {
+            this.id = id;
+            this.index = index;
+            this.depth = depth;
+        }
+    }
+
+    /** Move every loose object and every existing pack into a single new
+     *  pack. The files are only deleted after the pack is safely in place.
+     *
+     *  PATHOF maps the ids of blobs and trees to the path they were seen
+     *  at, newest first. The versions of one path are stored as deltas
+     *  against one of the WINDOW versions stored before them when that
+     *  saves at least half the space, so the newest version stays whole
+     *  and each older one costs about the size of its change. Objects
+     *  without a path are stored whole.
+     *  Objects for which KEEP is false are left out, and their loose files
+     *  deleted, see GarbageCollector.
+     *  @return the number of loose objects packed
+     */
+    public int repack(Map<String, String> pathOf, Predicate<String> keep) {
+        /* id -> type of every object, and the files of the loose ones */
+        Map<String, Byte> types = new LinkedHashMap<>();
+        Map<String, File> loose = new HashMap<>();
+        int packedLoose = 0;
+        for (byte type : new byte[] {BLOB, COMMIT, TREE, CHUNK}) {
+            for (String id : allLoose(type)) {
+                if (keep.test(id)) {
+                    types.put(id, type);
+                    packedLoose += 1;
+                }
+                loose.put(id, loosePath(type, id));
+            }
+        }
+        List<Pack> oldPacks = getPacks();
+        boolean dropped = false;
+        for (Pack p : oldPacks) {
+            for (int i = 0; i < p.size(); i++) {
+                String id = p.idAt(i);
+                if (keep.test(id)) {
+                    types.putIfAbsent(id, p.typeAt(i));
+                } else {
+                    dropped = true;
+                }
+            }
+        }
+        if (loose.isEmpty() && oldPacks.size() <= 1 && !dropped) {
+            return 0;
+        }
+
+        /* the versions of each path, newest first */
+        Map<String, List<String>> versions = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : pathOf.entrySet()) {
+            Byte type = types.get(e.getKey());
+            if (type != null && type != COMMIT) {
+                versions.computeIfAbsent(type + " " + e.getValue(), k -> new ArrayList<>())
+                        .add(e.getKey());
+            }
+        }
+
+        String name;
+        try (Pack.Writer pack = new Pack.Writer(packsDir)) {
+            for (List<String> ids : versions.values()) {
+                ArrayDeque<DeltaBase> window = new ArrayDeque<>();
+                for (String id : ids) {
+                    byte type = types.remove(id);
+                    byte[] content = loose.containsKey(id)
+                            ? decompress(readContents(loose.get(id))) : readObject(type, id);
+                    byte[] whole = loose.containsKey(id)
+                            ? readContents(loose.get(id)) : compress(content);
+                    byte[] best = null;
+                    DeltaBase bestBase = null;
+                    for (DeltaBase b : window) {
+                        if (b.depth >= MAX_DEPTH) {
+                            continue;
+                        }
+                        byte[] delta = Delta.create(b.index, content, content.length / 2);
+                        if (delta == null) {
+                            continue;
+                        }
+                        delta = compress(delta);
+                        if (delta.length < whole.length / 2
+                                && (best == null || delta.length < best.length)) {
+                            best = delta;
+                            bestBase = b;
+                        }
+                    }
+                    if (best == null) {
+                        pack.add(id, type, whole);
+                    } else {
+                        pack.add(id, type, best, bestBase.id);
+                    }
+                    window.addLast(new DeltaBase(id, new Delta.Index(content),
+                            bestBase == null ? 0 : bestBase.depth + 1));
+                    if (window.size() > WINDOW) {
+                        window.removeFirst();
+                    }
+                }
+            }
+            for (Map.Entry<String, Byte> e : types.entrySet()) {
+                String id = e.getKey();
+                pack.add(id, e.getValue(), loose.containsKey(id)
+                        ? readContents(loose.get(id)) : compress(readObject(e.getValue(), id)));
+            }
+            name = pack.finish().getName();
+        }
+        /* durable before the objects it holds are deleted */
+        Journal.sync();
+        /* the new pack replaced an old one holding the same objects */
+        String written = name.substring(0, name.length() - ".idx".length()) + ".";
+        dropPacks();
+        for (Pack p : oldPacks) {
+            for (File f : p.files()) {
+                if (!f.getName().startsWith(written)) {
+                    f.delete();
+                }
+            }
+        }
+        for (File f : loose.values()) {
+            f.delete();
+        }
+        for (File fanout : new File[] {commitsDir, treesDir, chunksDir}) {
+            File[] dirs = fanout.listFiles(File::isDirectory);
+            if (dirs != null) {
+                for (File dir : dirs) {
+                    dir.delete();
+                }
+            }
+        }
+        return packedLoose;
+    }
+}
@@ -0,0 +1,498 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/** A pack is one large segment file holding many objects back to back,
+ *  plus an index file that maps every object ID to its offset in the segment.
+ *
+ *  The files look like this:
+ *      pack-[name].pack   "GPCK" | version | object bytes ...
+ *      pack-[name].idx    "GIDX" | version | count | idLength |
+ *                         count * (id | type | offset | length | base)
+ *  The index entries are sorted by ID, so a lookup is a binary search over
+ *  the memory-mapped index, and reading an object is a slice of the
+ *  memory-mapped segment. No file is opened per object.
+ *
+ *  A mapped buffer holds at most 2 GB, so the segment is mapped in
+ *  windows of WINDOW_STEP + WINDOW_OVERLAP bytes, starting every
+ *  WINDOW_STEP bytes, as they are needed. An object no longer than the
+ *  overlap lies whole in the window where it starts; a longer one, which
+ *  chunking makes rare, is read from the file instead.
+ *
+ *  Packs are never appended to: new objects are written loose, and
+ *  repack moves them into a new pack.
+ *
+ *  An object is stored either whole, compressed like a loose object, or as
+ *  a compressed Delta against another object of the same pack: base is the
+ *  position of that object in the index, or -1. Chains of deltas are kept
+ *  short by repack (see ObjectStore.MAX_DEPTH), and the objects rebuilt
+ *  while following a chain are kept in a small cache, so reading the
+ *  versions of one file one after another doesn't rebuild the chain each
+ *  time. Packs of version 1 have no base field and no deltas.
+ */
+public class Pack {
+    private static final byte[] PACK_MAGIC = "GPCK".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INDEX_MAGIC = "GIDX".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 2;
+    /** magic + version + count + idLength */
+    private static final int INDEX_HEADER = 16;
+    /** type + offset + length (+ base since version 2), following the id bytes */
+    private static final int ENTRY_TAIL_V1 = 1 + 8 + 4;
+    private static final int ENTRY_TAIL = ENTRY_TAIL_V1 + 4;
+    /** Bytes of rebuilt objects kept by the reconstruction cache */
+    private static final long CACHE_BYTES = 16 << 20;
+    /** Distance between the starts of two windows of the segment */
+    private static final long WINDOW_STEP = 1L << 30;
+    /** Bytes a window reaches into the next one */
+    private static final long WINDOW_OVERLAP = 256L << 20;
+
+    private final File indexFile;
+    private final File packFile;
+    private final long packSize;
+    /** The mapped windows of the segment, mapped by window() */
+    private final MappedByteBuffer[] windows;
+    private final MappedByteBuffer index;
+    private final int count;
+    private final int idLength;
+    private final int entrySize;
+    private final int version;
+    /** position -> content of objects rebuilt from deltas, least recently
+     *  used first */
+    private final LinkedHashMap<Integer, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheBytes = 0;
+
+    /** Open the pack whose index is INDEXFILE */
+    public Pack(File indexFile) {
+        this.indexFile = indexFile;
+        String name = indexFile.getName();
+        packFile = new File(indexFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        index = map(indexFile, 0, indexFile.length());
+        packSize = packFile.length();
+        windows = new MappedByteBuffer[(int) (packSize / WINDOW_STEP) + 1];
+        /* the whole segment of a pack under WINDOW_STEP, mapped while the
+         * file surely exists */
+        window(0);
+        byte[] magic = new byte[4];
+        index.get(0, magic);
+        version = index.getInt(4);
+        if (!Arrays.equals(magic, INDEX_MAGIC) || version < 1 || version > VERSION) {
+            throw error("Corrupted pack index %s", indexFile.getName());
+        }
+        count = index.getInt(8);
+        idLength = index.getInt(12);
+        entrySize = idLength + (version == 1 ? ENTRY_TAIL_V1 : ENTRY_TAIL);
+    }
+
+    /** The files of this pack, the index first */
+    public File[] files() {
+        return new File[] {indexFile, packFile};
+    }
+
+    /** Map LENGTH bytes of FILE from START, no more than it holds */
+    private static MappedByteBuffer map(File file, long start, long length) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    Math.min(length, channel.size() - start));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return window K of the segment, mapping it the first time */
+    private synchronized MappedByteBuffer window(int k) {
+        if (windows[k] == null) {
+            windows[k] = map(packFile, k * WINDOW_STEP, WINDOW_STEP + WINDOW_OVERLAP);
+        }
+        return windows[k];
+    }
+
+    /** Read LENGTH bytes of the segment from OFFSET, for objects too long
+     *  for a window */
+    private ByteBuffer readSegment(long offset, int length) {
+        ByteBuffer result = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(packFile.toPath())) {
+            while (result.hasRemaining()) {
+                if (channel.read(result, offset + result.position()) < 0) {
+                    throw error("Corrupted pack %s", packFile.getName());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return result.flip();
+    }
+
+    /** Load every pack in DIR. Returns an empty list if DIR doesn't exist. */
+    public static List<Pack> loadAll(File dir) {
+        List<Pack> packs = new ArrayList<>();
+        String[] names = dir.list((d, n) -> n.endsWith(".idx"));
+        if (names == null) {
+            return packs;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            packs.add(new Pack(join(dir, name)));
+        }
+        return packs;
+    }
+
+    /* LOOKUP */
+
+    public int size() {
+        return count;
+    }
+
+    /** Compare the id of entry I with KEY, looking only at the first
+     *  KEY.length bytes of the id. */
+    private int compareAt(int i, byte[] key) {
+        int base = INDEX_HEADER + i * entrySize;
+        int len = Math.min(key.length, idLength);
+        for (int k = 0; k < len; k++) {
+            int diff = (index.get(base + k) & 0xff) - (key[k] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return key.length > idLength ? -1 : 0;
+    }
+
+    /** Return the position of the first entry whose id is >= PREFIX */
+    private int lowerBound(byte[] prefix) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareAt(mid, prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the position of ID in the index, or -1 */
+    private int find(String id) {
+        if (id.length() != idLength) {
+            return -1;
+        }
+        byte[] key = id.getBytes(StandardCharsets.US_ASCII);
+        int i = lowerBound(key);
+        if (i < count && compareAt(i, key) == 0) {
+            return i;
+        }
+        return -1;
+    }
+
+    public boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    public String idAt(int i) {
+        byte[] id = new byte[idLength];
+        index.get(INDEX_HEADER + i * entrySize, id);
+        return new String(id, StandardCharsets.US_ASCII);
+    }
+
+    public byte typeAt(int i) {
+        return index.get(INDEX_HEADER + i * entrySize + idLength);
+    }
+
+    /** Return the type of object ID, or -1 if it isn't in this pack */
+    public byte typeOf(String id) {
+        int i = find(id);
+        return i < 0 ? -1 : typeAt(i);
+    }
+
+    /** Return the position of the base of entry I, or -1 if it is
+     *  stored whole */
+    public int baseAt(int i) {
+        if (version == 1) {
+            return -1;
+        }
+        return index.getInt(INDEX_HEADER + i * entrySize + idLength + ENTRY_TAIL_V1);
+    }
+
+    /** Return the stored bytes of entry I */
+    private ByteBuffer storedAt(int i) {
+        int base = INDEX_HEADER + i * entrySize + idLength + 1;
+        long offset = index.getLong(base);
+        int length = index.getInt(base + 8);
+        if (length > WINDOW_OVERLAP || offset + length > packSize) {
+            return readSegment(offset, length);
+        }
+        int k = (int) (offset / WINDOW_STEP);
+        return window(k).slice((int) (offset - k * WINDOW_STEP), length);
+    }
+
+    private byte[] storedBytesAt(int i) {
+        ByteBuffer stored = storedAt(i);
+        byte[] result = new byte[stored.remaining()];
+        stored.get(result);
+        return result;
+    }
+
+    /** Return the content of entry I, following its delta chain. Objects
+     *  rebuilt on the way are cached, they are likely to be read again. */
+    public byte[] contentAt(int i) {
+        int base = baseAt(i);
+        if (base < 0) {
+            return decompress(storedBytesAt(i));
+        }
+        synchronized (cache) {
+            byte[] cached = cache.get(i);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        /* walk down to the first object that is whole or cached, then
+         * rebuild the chain back up from there */
+        List<Integer> chain = new ArrayList<>();
+        byte[] content = null;
+        int j = i;
+        while (content == null) {
+            synchronized (cache) {
+                content = cache.get(j);
+            }
+            if (content == null) {
+                base = baseAt(j);
+                if (base < 0) {
+                    content = decompress(storedBytesAt(j));
+                } else {
+                    chain.add(j);
+                    j = base;
+                }
+            }
+        }
+        for (int k = chain.size() - 1; k >= 0; k--) {
+            content = Delta.apply(content, decompress(storedBytesAt(chain.get(k))));
+            cachePut(chain.get(k), content);
+        }
+        return content;
+    }
+
+    private void cachePut(int i, byte[] content) {
+        if (content.length > CACHE_BYTES / 4) {
+            return;
+        }
+        synchronized (cache) {
+            byte[] old = cache.put(i, content);
+            cacheBytes += content.length - (old == null ? 0 : old.length);
+            Iterator<byte[]> it = cache.values().iterator();
+            while (cacheBytes > CACHE_BYTES && it.hasNext()) {
+                cacheBytes -= it.next().length;
+                it.remove();
+            }
+        }
+    }
+
+    /** Return the content of object ID, or null if it isn't in this pack */
+    public byte[] read(String id) {
+        int i = find(id);
+        return i < 0 ? null : contentAt(i);
+    }
+
+    /** Open a stream over the content of object ID, or return null if it
+     *  isn't in this pack. A whole object is decompressed while it is read
+     *  from the mapped segment, a delta is rebuilt first. */
+    public InputStream open(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return null;
+        }
+        if (baseAt(i) >= 0) {
+            return new ByteArrayInputStream(contentAt(i));
+        }
+        return decompress(new BufferInputStream(storedAt(i)));
+    }
+
+    /** An InputStream over the remaining bytes of a ByteBuffer */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+
+    /** Return all ids in this pack starting with PREFIX whose type is TYPE */
+    public List<String> idsWithPrefix(String prefix, byte type) {
+        List<String> result = new ArrayList<>();
+        byte[] key = prefix.getBytes(StandardCharsets.US_ASCII);
+        for (int i = lowerBound(key); i < count && compareAt(i, key) == 0; i++) {
+            if (typeAt(i) == type) {
+                result.add(idAt(i));
+            }
+        }
+        return result;
+    }
+
+    /* WRITING */
+
+    /** Writes a new pack one object at a time. The stored bytes of an
+     *  object go straight to the segment file; only its index entry is
+     *  kept, so writing a pack takes memory for the ids, not the objects.
+     *  Both files are written under temporary names and renamed into place
+     *  by finish, so readers never see half a pack; close deletes what is
+     *  left if finish wasn't reached. */
+    public static class Writer implements AutoCloseable {
+        private final File dir;
+        private final File packTmp;
+        private final DataOutputStream out;
+        private final List<IndexEntry> entries = new ArrayList<>();
+        private long offset;
+        private boolean finished;
+
+        /** Start a new pack in DIR */
+        public Writer(File dir) {
+            this.dir = dir;
+            dir.mkdirs();
+            packTmp = tempFileFor(join(dir, "pack"));
+            try {
+                out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(packTmp.toPath()), BUFFER_SIZE));
+                out.write(PACK_MAGIC);
+                out.writeInt(VERSION);
+            } catch (IOException excp) {
+                packTmp.delete();
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            offset = PACK_MAGIC.length + 4;
+        }
+
+        /** Add object ID of TYPE stored whole as DATA, compressed like a
+         *  loose object */
+        public void add(String id, byte type, byte[] data) {
+            add(id, type, data, null);
+        }
+
+        /** Add object ID of TYPE stored as DATA, the compressed delta
+         *  against BASEID, an object added to this pack too */
+        public void add(String id, byte type, byte[] data, String baseID) {
+            try {
+                out.write(data);
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            entries.add(new IndexEntry(id, type, offset, data.length, baseID));
+            offset += data.length;
+        }
+
+        /** Write the index and put the pack in place
+         *  @return its index file
+         */
+        public File finish() {
+            entries.sort(Comparator.comparing(e -> e.id));
+            List<Object> names = new ArrayList<>();
+            Map<String, Integer> positions = new HashMap<>();
+            for (int i = 0; i < entries.size(); i++) {
+                names.add(entries.get(i).id);
+                positions.put(entries.get(i).id, i);
+            }
+            String name = "pack-" + sha1(names);
+            File packFile = join(dir, name + ".pack");
+            File indexFile = join(dir, name + ".idx");
+            File indexTmp = tempFileFor(indexFile);
+            int idLength = entries.isEmpty() ? UID_LENGTH : entries.get(0).id.length();
+            try {
+                out.close();
+                try (DataOutputStream index = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(indexTmp.toPath()), BUFFER_SIZE))) {
+                    index.write(INDEX_MAGIC);
+                    index.writeInt(VERSION);
+                    index.writeInt(entries.size());
+                    index.writeInt(idLength);
+                    for (IndexEntry e : entries) {
+                        index.write(e.id.getBytes(StandardCharsets.US_ASCII));
+                        index.writeByte(e.type);
+                        index.writeLong(e.offset);
+                        index.writeInt(e.length);
+                        index.writeInt(e.baseID == null ? -1 : positions.get(e.baseID));
+                    }
+                }
+                /* The index goes last: a pack without an index is simply ignored */
+                Files.move(packTmp.toPath(), packFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.move(indexTmp.toPath(), indexFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Journal.written(packFile);
+                Journal.written(indexFile);
+            } catch (IOException excp) {
+                indexTmp.delete();
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            finished = true;
+            return indexFile;
+        }
+
+        /** Give up the pack unless it was finished */
+        @Override
+        public void close() {
+            if (finished) {
+                return;
+            }
+            try {
+                out.close();
+            } catch (IOException excp) {
+                /* it is deleted anyway */
+            }
+            packTmp.delete();
+        }
+    }
+
+    /** The index entry of an object written by a Writer */
+    private static class IndexEntry {
+        final String id;
+        final byte type;
+        final long offset;
+        final int length;
+        final String baseID;
+
+        IndexEntry(String id, byte type, long offset, int length, String baseID) {
+            this.id = id;
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+            this.baseID = baseID;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/** The branches of a repository and the commits they point to.
+ *
+ *  A branch is stored in one of two places:
+ *  1. a loose ref, refs/heads/[name], holding the commit id, the original
+ *     layout, which every update writes;
+ *  2. .gitlet/packed-refs, one sorted file of "[commit id] [name]" lines,
+ *     written by the pack-refs command from all the loose refs.
+ *  A loose ref overrides the packed one of the same name, so a branch
+ *  moved after pack-refs doesn't touch packed-refs again.
+ *
+ *  packed-refs is read once per command into a sorted table. Resolving a
+ *  branch reads its loose ref if there is one and binary searches the
+ *  table otherwise; listing the branches lists refs/heads without reading the
+ *  loose refs. So with tens of thousands of packed branches no command
+ *  reads a file per branch. Everything goes through Journal, so updates
+ *  are seen at once and applied when the command ends.
+ */
+public class Refs {
+    /** The refs of the repository in the current working directory */
+    public static final Refs LOCAL = new Refs(Repository.GITLET_DIR);
+
+    private final File headsDir;
+    private final File packedFile;
+
+    /** The branches in packed-refs, sorted by name, with their commit ids
+     *  at the same positions, loaded lazily by loadPacked() */
+    private String[] packedNames;
+    private String[] packedIDs;
+
+    public Refs(File gitletDir) {
+        this.headsDir = join(gitletDir, "refs", "heads");
+        this.packedFile = join(gitletDir, "packed-refs");
+    }
+
+    /** Read packed-refs into packedNames and packedIDs. It is scanned once,
+     *  without splitting it into lines first, since with many branches
+     *  this is most of the work of a command that resolves one. */
+    private void loadPacked() {
+        if (packedNames != null) {
+            return;
+        }
+        byte[] bytes = Journal.exists(packedFile) ? Journal.read(packedFile) : new byte[0];
+        List<String> names = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        boolean sorted = true;
+        int start = 0;
+        while (start < bytes.length) {
+            int end = start;
+            int space = -1;
+            while (end < bytes.length && bytes[end] != '\n') {
+                if (space < 0 && bytes[end] == ' ') {
+                    space = end;
+                }
+                end += 1;
+            }
+            if (space > start) {
+                String name = new String(bytes, space + 1, end - space - 1, StandardCharsets.UTF_8);
+                sorted = sorted && (names.isEmpty()
+                        || names.get(names.size() - 1).compareTo(name) < 0);
+                names.add(name);
+                ids.add(new String(bytes, start, space - start, StandardCharsets.US_ASCII));
+            }
+            start = end + 1;
+        }
+        if (!sorted) {
+            /* edited by hand */
+            TreeMap<String, String> map = new TreeMap<>();
+            for (int i = 0; i < names.size(); i++) {
+                map.put(names.get(i), ids.get(i));
+            }
+            setPacked(map);
+            return;
+        }
+        packedNames = names.toArray(new String[0]);
+        packedIDs = ids.toArray(new String[0]);
+    }
+
+    private void setPacked(TreeMap<String, String> map) {
+        packedNames = map.keySet().toArray(new String[0]);
+        packedIDs = map.values().toArray(new String[0]);
+    }
+
+    /** Return the branches in packed-refs as a map, to be changed */
+    private TreeMap<String, String> packedMap() {
+        loadPacked();
+        TreeMap<String, String> map = new TreeMap<>();
+        for (int i = 0; i < packedNames.length; i++) {
+            map.put(packedNames[i], packedIDs[i]);
+        }
+        return map;
+    }
+
+    /** Return the names of the loose refs, including the branches fetched
+     *  from remotes, [remote]/[branch] */
+    private List<String> looseNames() {
+        List<String> result = new ArrayList<>(Journal.plainFilenamesIn(headsDir));
+        File[] remotes = headsDir.listFiles(File::isDirectory);
+        if (remotes != null) {
+            for (File remote : remotes) {
+                for (String name : Journal.plainFilenamesIn(remote)) {
+                    result.add(remote.getName() + "/" + name);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Forget the loaded table, so the next use reads packed-refs again */
+    public void reset() {
+        packedNames = null;
+        packedIDs = null;
+    }
+
+    /** Return the commit id of branch NAME, or null if there is none */
+    public String get(String name) {
+        File loose = join(headsDir, name);
+        if (Journal.exists(loose)) {
+            return Journal.readString(loose);
+        }
+        loadPacked();
+        int i = Arrays.binarySearch(packedNames, name);
+        return i >= 0 ? packedIDs[i] : null;
+    }
+
+    /** Return the names of all branches in sorted order */
+    public List<String> names() {
+        loadPacked();
+        List<String> loose = looseNames();
+        if (loose.isEmpty()) {
+            return new ArrayList<>(Arrays.asList(packedNames));
+        }
+        TreeSet<String> names = new TreeSet<>(Arrays.asList(packedNames));
+        names.addAll(loose);
+        return new ArrayList<>(names);
+    }
+
+    /** Point branch NAME at COMMITID, creating it if needed */
+    public void set(String name, String commitID) {
+        File loose = join(headsDir, name);
+        loose.getParentFile().mkdirs();
+        Journal.write(loose, commitID);
+    }
+
+    /** Delete branch NAME, loose and packed */
+    public void delete(String name) {
+        File loose = join(headsDir, name);
+        if (Journal.exists(loose)) {
+            Journal.delete(loose);
+        }
+        TreeMap<String, String> packed = packedMap();
+        if (packed.remove(name) != null) {
+            writePacked(packed);
+        }
+    }
+
+    /** Move every loose ref into packed-refs
+     *  @return the number of refs moved
+     */
+    public int pack() {
+        List<String> loose = looseNames();
+        if (loose.isEmpty()) {
+            return 0;
+        }
+        TreeMap<String, String> packed = packedMap();
+        for (String name : loose) {
+            packed.put(name, get(name));
+            Journal.delete(join(headsDir, name));
+        }
+        writePacked(packed);
+        return loose.size();
+    }
+
+    private void writePacked(TreeMap<String, String> packed) {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, String> e : packed.entrySet()) {
+            out.append(e.getValue()).append(' ').append(e.getKey()).append('\n');
+        }
+        Journal.write(packedFile, out.toString());
+        setPacked(packed);
+    }
+}
@@ -0,0 +1,172 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/** A gitlet repository seen through its object store and indexes: the one
+ *  in the current working directory (LOCAL), or another one on the same
+ *  filesystem used by fetch, push and pull.
+ *
+ *  add-remote records a remote as .gitlet/remotes/[name], holding the path
+ *  of its .gitlet dir.
+ *
+ *  sendTo copies a commit and its history to another repository. The
+ *  commits the receiver is missing are found by walking the commit graph
+ *  of the sender from that commit, stopping at commits the receiver has,
+ *  since it has their whole history too. The trees of the missing commits
+ *  are walked the same way, skipping subtrees the receiver has. Everything
+ *  missing is written into the receiver as one pack, and then added to its
+ *  commit index, commit graph and message index.
+ */
+public class Remote {
+    /** Where the remotes of the local repository are recorded */
+    public static final File REMOTES_DIR = join(Repository.GITLET_DIR, "remotes");
+
+    /** The repository in the current working directory */
+    public static final Remote LOCAL = new Remote(Repository.GITLET_DIR, ObjectStore.LOCAL,
+            CommitIndex.LOCAL, CommitGraph.LOCAL, MessageIndex.LOCAL, Refs.LOCAL);
+
+    private final File gitletDir;
+    private final ObjectStore store;
+    private final CommitIndex index;
+    private final CommitGraph graph;
+    private final MessageIndex messages;
+    private final Refs refs;
+
+    private Remote(File gitletDir, ObjectStore store, CommitIndex index,
+                   CommitGraph graph, MessageIndex messages, Refs refs) {
+        this.gitletDir = gitletDir;
+        this.refs = refs;
+        this.store = store;
+        this.index = index;
+        this.graph = graph;
+        this.messages = messages;
+    }
+
+    /** The repository whose .gitlet dir is GITLETDIR */
+    public Remote(File gitletDir) {
+        this.gitletDir = gitletDir;
+        this.store = new ObjectStore(join(gitletDir, "objects"));
+        this.index = new CommitIndex(gitletDir, store);
+        this.graph = new CommitGraph(gitletDir, store, index);
+        this.messages = new MessageIndex(join(gitletDir, "message-index"), index);
+        this.refs = new Refs(gitletDir);
+    }
+
+    /** Return the remote recorded as NAME. Exits with an error message if
+     *  there is no such remote or its directory is gone. */
+    public static Remote get(String name) {
+        File config = join(REMOTES_DIR, name);
+        File dir = Journal.exists(config) ? new File(Journal.readString(config)) : null;
+        if (dir != null && !dir.isAbsolute()) {
+            dir = join(Repository.CWD, dir.getPath());
+        }
+        if (dir == null || !dir.isDirectory()) {
+            message("Remote directory not found.");
+            exit(0);
+        }
+        /* kept from gc in the remote while we use it */
+        Locks.of(dir).lockRepository(false);
+        return new Remote(dir);
+    }
+
+    public Hashing getHashing() {
+        return Hashing.of(gitletDir);
+    }
+
+    /** Return the commit id of BRANCH, or null if there is no such branch */
+    public String head(String branch) {
+        return refs.get(branch);
+    }
+
+    public void setHead(String branch, String commitID) {
+        refs.set(branch, commitID);
+    }
+
+    public boolean isAncestor(String ancestor, String commitID) {
+        return store.contains(ObjectStore.COMMIT, ancestor)
+                && graph.isAncestor(ancestor, commitID);
+    }
+
+    /** Copy commit HEADID, its history and everything they need that TO
+     *  doesn't have into TO.
+     *  @return the number of commits copied
+     */
+    public int sendTo(Remote to, String headID) {
+        List<String> commits = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        Deque<String> todo = new ArrayDeque<>();
+        todo.push(headID);
+        while (!todo.isEmpty()) {
+            String id = todo.pop();
+            if (!seen.add(id) || to.store.contains(ObjectStore.COMMIT, id)) {
+                continue;
+            }
+            commits.add(id);
+            for (String parent : new String[] {graph.firstParent(id), graph.secondParent(id)}) {
+                if (parent != null) {
+                    todo.push(parent);
+                }
+            }
+        }
+        if (commits.isEmpty()) {
+            return 0;
+        }
+        /* parents first, so the receiver's commit graph can append them */
+        commits.sort(Comparator.comparingInt(graph::generation));
+
+        Map<String, Byte> objects = new LinkedHashMap<>();
+        List<Commit> parsed = new ArrayList<>();
+        for (String id : commits) {
+            Commit c = Commit.parse(store.read(ObjectStore.COMMIT, id));
+            parsed.add(c);
+            objects.put(id, ObjectStore.COMMIT);
+            if (c.getTreeID() != null) {
+                Tree.collect(store, c.getTreeID(),
+                        t -> to.store.contains(ObjectStore.TREE, t), objects);
+            } else {
+                /* commits written before trees existed */
+                for (String blobID : c.getBlobMap().values()) {
+                    objects.putIfAbsent(blobID, ObjectStore.BLOB);
+                }
+            }
+        }
+        List<String> blobs = new ArrayList<>();
+        for (Map.Entry<String, Byte> e : objects.entrySet()) {
+            if (e.getValue() == ObjectStore.BLOB) {
+                blobs.add(e.getKey());
+            }
+        }
+        for (String blobID : blobs) {
+            if (to.store.contains(ObjectStore.BLOB, blobID)) {
+                objects.remove(blobID);
+                continue;
+            }
+            for (String chunkID : store.chunkIDs(blobID)) {
+                if (!to.store.contains(ObjectStore.CHUNK, chunkID)) {
+                    objects.put(chunkID, ObjectStore.CHUNK);
+                }
+            }
+        }
+        store.copyTo(to.store, objects);
+
+        for (int i = 0; i < commits.size(); i++) {
+            String id = commits.get(i);
+            Commit c = parsed.get(i);
+            to.index.add(id);
+            to.graph.add(id, c.getFirstParentID(), c.getSecondParentID());
+            to.messages.add(id, c.getMessage());
+        }
+        return commits.size();
+    }
+}
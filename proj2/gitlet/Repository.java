@@ -2,13 +2,25 @@ package gitlet;
 
 
 import java.awt.image.AreaAveragingScaleFilter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.sql.Array;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static gitlet.Utils.*;
-import static java.lang.System.exit;
 
 // TODO: any imports you need here
 
@@ -20,8 +32,13 @@ import static java.lang.System.exit;
  *      The dir can be designed as:
  *      .gitlet
  *      |-- objects
+ *          |-- blobs       loose blobs
+ *          |-- commits     loose commits
+ *          |-- packs       packed objects, see Pack
  *      |-- refs
  *          |-- heads
+ *              |-- [remote]    branches fetched from a remote
+ *      |-- remotes             the path of each remote, see Remote
  *  @author TODO
  */
 public class Repository {
@@ -33,12 +50,16 @@ public class Repository {
     public static final File OBJECTS_DIR = join(GITLET_DIR, "objects");
     public static final File COMMITS_DIR = join(OBJECTS_DIR, "commits");
     public static final File BLOBS_DIR = join(OBJECTS_DIR, "blobs");
+    public static final File PACKS_DIR = join(OBJECTS_DIR, "packs");
     /** The refs dir */
     public static final File REFS_DIR = join(GITLET_DIR, "refs");
     /** The Head dir */
     public static final File HEAD_DIR = join(REFS_DIR, "heads");
     /** The head path which represent the current branch */
     public static final File BRANCH_FILE = join(REFS_DIR, "branch");
+    /** The staging index, see Stage */
+    public static final File INDEX_FILE = join(GITLET_DIR, "index");
+    /** Where older versions kept the stage, only read to migrate it */
     public static final File ADD_DIR = join(REFS_DIR, "addfile");
     public static final File REMOVE_DIR = join(REFS_DIR, "rmfile");
 
@@ -48,22 +69,34 @@ public class Repository {
     }
 
     public static void checkInit() {
+        checkInit(false);
+    }
+
+    /** checkInit for a command that deletes or rewrites what other commands
+     *  may be using (gc, repack, reindex): the repository lock is taken
+     *  EXCLUSIVE before anything is read, see Locks */
+    public static void checkInit(boolean exclusive) {
         if(!isInit()) {
             message("Not in an initialized Gitlet directory.");
             exit(0);
         }
+        Locks.LOCAL.lockRepository(exclusive);
+        /* finish what a crashed command left in the journal */
+        Journal.recover();
     }
     /** To Do:
      *  1. check whether the gitlet is initialized   | ok
      *  2. initialize the dir   | ok
      *  3. initialize the master commit |ok
+     *  @param hashing the algorithm of the object ids, see Hashing
      */
-    public static void initRepository() {
+    public static void initRepository(Hashing hashing) {
         if(isInit()) {
             message("A Gitlet version-control system already exists in the current directory.");
             exit(0);
         }
         setupPersistence();
+        Hashing.initLocal(hashing);
         Commit c = Commit.initCommit();
         String commitID = c.getCommitID();
         c.saveCommit(commitID);
@@ -75,11 +108,10 @@ public class Repository {
         OBJECTS_DIR.mkdir();
         REFS_DIR.mkdir();
         HEAD_DIR.mkdir();
-        writeContents(BRANCH_FILE, "master");
-        ADD_DIR.mkdir();
-        REMOVE_DIR.mkdir();
+        Journal.write(BRANCH_FILE, "master");
         COMMITS_DIR.mkdir();
         BLOBS_DIR.mkdir();
+        PACKS_DIR.mkdir();
     }
 
     /* METHODS ABOUT BRANCHES AND HEADS */
@@ -89,19 +121,26 @@ public class Repository {
      * The content is the commitID
      * */
     public static void saveHead(String headName, String commitID) {
-        File headPath = join(HEAD_DIR, headName);
-        writeContents(headPath, commitID);
+        Refs.LOCAL.set(headName, commitID);
     }
 
+    /** Get the names of all branches in sorted order, including the ones
+     * fetched from remotes, named [remote]/[branch]
+     * @return
+     */
     private static List<String> getBranchList() {
-        return plainFilenamesIn(HEAD_DIR);
+        return Refs.LOCAL.names();
+    }
+
+    private static boolean branchExists(String branchName) {
+        return Refs.LOCAL.get(branchName) != null;
     }
     /** get the current branch name
      * test: pass
      * @return
      */
     public static String getCurrentBranchName() {
-        return readContentsAsString(BRANCH_FILE);
+        return Journal.readString(BRANCH_FILE);
     }
 
     /** set current branch name
@@ -109,17 +148,15 @@ public class Repository {
      * @param branchName
      */
     public static void setCurrentBranch(String branchName) {
-        writeContents(BRANCH_FILE, branchName);
+        Journal.write(BRANCH_FILE, branchName);
     }
 
     public static String getBranchCommitID(String branchName) {
-        File path = join(HEAD_DIR, branchName);
-        return readContentsAsString(path);
+        return Refs.LOCAL.get(branchName);
     }
 
     public static void setCurrentBranchCommitID(String commitID) {
-        File path = join(HEAD_DIR, getCurrentBranchName());
-        writeContents(path, commitID);
+        Refs.LOCAL.set(getCurrentBranchName(), commitID);
     }
     /** Get commit of given branch name
      * test:  pass
@@ -127,8 +164,7 @@ public class Repository {
      * @return Commit
      */
     public static Commit getBranchCommit(String branchName) {
-        File branchPath = join(HEAD_DIR, branchName);
-        String commitID = readContentsAsString(branchPath);
+        String commitID = Refs.LOCAL.get(branchName);
         return Commit.getCommitFromID(commitID);
     }
 
@@ -143,12 +179,12 @@ public class Repository {
     /* METHODS ABOUT FILES STATUS */
     private static List<String> getUntrackedList() {
         List<String> list = new LinkedList<>();
-        List<String> filesInCWD = plainFilenamesIn(CWD);
+        List<String> filesInCWD = getWorkingFiles();
         Set<String> filesInCommit = getCurrentCommit().getBlobMap().keySet();
 
         for (String filename : filesInCWD) {
-            if (!Stage.hasFile(filename, ADD_DIR)) {
-                if (Stage.hasFile(filename, REMOVE_DIR) || !filesInCommit.contains(filename)) {
+            if (!Stage.isStagedForAddition(filename)) {
+                if (Stage.isStagedForRemoval(filename) || !filesInCommit.contains(filename)) {
                     list.add(filename);
                 }
             }
@@ -156,73 +192,169 @@ public class Repository {
         return list;
     }
 
-    private static List<String> getTrackedList() {
-        List<String> list = new LinkedList<>();
-        List<String> filesInCWD = plainFilenamesIn(CWD);
-        Set<String> filesInCommit = getCurrentCommit().getBlobMap().keySet();
+    /** Get the paths of all files in the working dir, relative to CWD and
+     * separated by '/', in sorted order. The .gitlet dir is skipped.
+     * @return
+     */
+    public static List<String> getWorkingFiles() {
+        return listFilesUnder("");
+    }
 
-        for (String filename : filesInCWD) {
-            if (Stage.hasFile(filename, ADD_DIR) || filesInCommit.contains(filename)) {
-                list.add(filename);
-            }
+    /** Get the paths of all files under path in the working dir,
+     * or the path itself if it is a file
+     * @param path relative to CWD, "" is the whole working dir
+     * @return
+     */
+    private static List<String> listFilesUnder(String path) {
+        List<String> result = new ArrayList<>();
+        Path root = CWD.toPath();
+        try {
+            Files.walkFileTree(root.resolve(path), new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (dir.toFile().equals(GITLET_DIR)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        result.add(toRepoPath(root.relativize(file)));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        result.sort(Comparator.naturalOrder());
+        return result;
+    }
+
+    /** Turn a path given on the command line into a path relative to CWD
+     * separated by '/', e.g. "./a/../b/c.txt" into "b/c.txt" and "." into ""
+     */
+    private static String normalizePath(String arg) {
+        Path root = CWD.toPath();
+        return toRepoPath(root.relativize(root.resolve(arg).normalize()));
+    }
+
+    private static String toRepoPath(Path relative) {
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    /** Check whether filename is path itself or lies under the directory path */
+    private static boolean isUnder(String filename, String path) {
+        return path.isEmpty() || filename.equals(path) || filename.startsWith(path + "/");
+    }
+
+    /** Write blob blobID into the working file filename.
+     * Its stat isn't recorded: it was just modified, so the stat cache
+     * wouldn't trust it, and the next status hashes it once.
+     */
+    private static void writeWorkingFile(String filename, String blobID) {
+        File file = join(CWD, filename);
+        file.getParentFile().mkdirs();
+        Blob.writeContentToFile(blobID, file);
+    }
+
+    /** Delete the working file filename, and its parent dirs once they are empty */
+    private static void deleteWorkingFile(String filename) {
+        File file = join(CWD, filename);
+        file.delete();
+        File dir = file.getParentFile();
+        while (dir != null && !dir.equals(CWD) && dir.delete()) {
+            dir = dir.getParentFile();
         }
-        return list;
     }
 
     /* IMPLEMENTATION OF COMMAND */
 
     /** Implementation of the add command
+     * Every path may be a file or a directory, which adds all files under it.
+     * The files are hashed and compressed in parallel on the fork-join pool.
      *
-     * @param filename
+     * @param paths
      */
-    public static void addStage(String filename) {
-        File file = join(CWD, filename);
-
-        /* file doesn't exist */
-        if(!(file.exists() && file.isFile())) {
-            message("File does not exist.");
-            exit(0);
+    public static void addStage(List<String> paths) {
+        List<String> filenames = new ArrayList<>();
+        for (String arg : paths) {
+            String path = normalizePath(arg);
+            File file = join(CWD, path);
+            /* file doesn't exist */
+            if (!file.exists() || path.startsWith("..")) {
+                message("File does not exist.");
+                exit(0);
+            }
+            filenames.addAll(listFilesUnder(path));
         }
 
-        String fileContent = readContentsAsString(file);
         TreeMap<String, String> map = getCurrentCommit().getBlobMap();
-        List<String> rmFiles = plainFilenamesIn(REMOVE_DIR);
+        TreeMap<String, String> staged = Stage.getAddedMap();
+        String[] ids = new String[filenames.size()];
+        IntStream.range(0, filenames.size()).parallel().forEach(i -> {
+            String filename = filenames.get(i);
+            File file = join(CWD, filename);
+            String id = StatCache.LOCAL.getID(filename, file);
+            /* file is new or changed: save its blob now, the stage only keeps the id */
+            if (!id.equals(map.get(filename)) && !id.equals(staged.get(filename))) {
+                new Blob(file, id).saveBlob();
+            }
+            ids[i] = id;
+        });
 
-        /* file is tracked */
-        if(map.containsKey(filename)) {
-            // is it possible to just compare the hash value rather than
-            // check the content?
-            String oldHashID = map.get(filename);
-            String newHashID = sha1(fileContent);
-            if(oldHashID.equals(newHashID)) {
-                Stage.removeFile(filename, ADD_DIR);
-                Stage.removeFile(filename, REMOVE_DIR);
-                return;
+        for (int i = 0; i < ids.length; i++) {
+            String filename = filenames.get(i);
+            /* file is tracked and unchanged */
+            if (ids[i].equals(map.get(filename))) {
+                Stage.unstage(filename);
+            } else {
+                Stage.stageFile(filename, ids[i]);
             }
         }
-
-        /* file is not tracked */
-        Stage.stageFile(filename, fileContent);
     }
 
     /** Implementation of rm command
+     * Every path may be a file or a directory, which removes all tracked
+     * and staged files under it.
      *
-     * @param filename
+     * @param paths
      */
-    public static void removeStage(String filename) {
-        /* Check whether the file is staged or in the commit */
+    public static void removeStage(List<String> paths) {
         Commit c = getCurrentCommit();
-        if(!c.hasFilename(filename) && !Stage.hasFile(filename, ADD_DIR)) {
-            System.out.println("No reason to remove the file.");
-            exit(0);
+        Set<String> filenames = new TreeSet<>();
+        for (String arg : paths) {
+            String path = normalizePath(arg);
+            boolean found = false;
+            for (String filename : c.getBlobMap().keySet()) {
+                if (isUnder(filename, path)) {
+                    filenames.add(filename);
+                    found = true;
+                }
+            }
+            for (String filename : Stage.getAddedMap().keySet()) {
+                if (isUnder(filename, path)) {
+                    filenames.add(filename);
+                    found = true;
+                }
+            }
+            /* Check whether the file is staged or in the commit */
+            if (!found) {
+                System.out.println("No reason to remove the file.");
+                exit(0);
+            }
         }
 
-        /* Remove the file from working dir and remove it from add stage */
-        Stage.removeFile(filename, ADD_DIR);
-        join(CWD, filename).delete();
-        /* File is recorded in commit */
-        if(c.hasFilename(filename)) {
-            Stage.addEmptyFile(filename, REMOVE_DIR);
+        for (String filename : filenames) {
+            /* Remove the file from working dir and remove it from add stage */
+            Stage.unstage(filename);
+            deleteWorkingFile(filename);
+            /* File is recorded in commit */
+            if (c.hasFilename(filename)) {
+                Stage.stageRemoval(filename);
+            }
         }
     }
 
@@ -237,59 +369,60 @@ public class Repository {
             exit(0);
         }
         /* Add changes to new commit */
-        Commit parent = getCurrentCommit();
-        Commit newCommit = new Commit(parent, new Date(), message);
-        List<String> addFiles = plainFilenamesIn(ADD_DIR);
-        List<String> removeFiles = plainFilenamesIn(REMOVE_DIR);
-        for(String i : removeFiles) {
+        String parentID = getBranchCommitID(getCurrentBranchName());
+        Commit newCommit = new Commit(parentID, new Date(), message);
+        for(String i : Stage.getRemovedSet()) {
             newCommit.removeFile(i);
         }
-        for(String filename : addFiles) {
-            /* Create blob object */
-            File file = join(ADD_DIR, filename);
-            String content = readContentsAsString(file);
-            Blob b = new Blob(content);
-            String bID = b.getId();
-            b.saveBlob();
-            /* Add file to commit */
-            newCommit.addFile(filename, bID);
+        /* the blobs were saved by add */
+        for(Map.Entry<String, String> e : Stage.getAddedMap().entrySet()) {
+            newCommit.addFile(e.getKey(), e.getValue());
         }
         String commitID = newCommit.getCommitID();
         newCommit.saveCommit(commitID);
 
         /* Change branch and head */
         String branch = getCurrentBranchName();
-        writeContents(join(HEAD_DIR, branch), commitID);
+        Refs.LOCAL.set(branch, commitID);
         Stage.clearStage();
     }
 
     /** Implementation of log command
      *
      */
-    public static void log() {
-        Commit c = getCurrentCommit();
-        String branchName = getCurrentBranchName();
-        File headFile = join(HEAD_DIR, branchName);
-        String id = readContentsAsString(headFile);
-        while(c != null) {
-            c.printLog(id);
-            id = c.getFirstParentID();
-            c = Commit.getCommitFromID(id);
+    public static void log(int limit, boolean oneline) {
+        PrintWriter out = bufferedOutput();
+        String id = getBranchCommitID(getCurrentBranchName());
+        /* the first-parent chain comes from the commit graph,
+        commits are only loaded to be printed */
+        for (int n = 0; id != null && n != limit; n++) {
+            Commit.peek(id).printLog(id, out, oneline);
+            id = CommitGraph.LOCAL.firstParent(id);
         }
+        out.flush();
     }
 
     /** Implementation of global-log command
      *  TODO: need to check this function after branch/merge command is completed
      */
-    public static void global_log() {
-        File[] dirs = COMMITS_DIR.listFiles(File::isDirectory);
-
-        for(int i=0; i<dirs.length; i++) {
-            List<String> files = plainFilenamesIn(dirs[i]);
-            for (String commitID : files) {
-                Commit.getCommitFromID(commitID).printLog(commitID);
+    public static void global_log(int limit, boolean oneline) {
+        PrintWriter out = bufferedOutput();
+        int n = 0;
+        for (String commitID : CommitIndex.LOCAL.allIDs()) {
+            if (n++ == limit) {
+                break;
             }
+            Commit.peek(commitID).printLog(commitID, out, oneline);
         }
+        out.flush();
+    }
+
+    /** A writer over System.out with a large buffer, for commands that
+     * print a lot of lines. It is flushed whenever the buffer is full, so
+     * output starts before everything is printed; flush it at the end */
+    private static PrintWriter bufferedOutput() {
+        return new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out), BUFFER_SIZE), false);
     }
 
     /** Implementation of find command
@@ -297,23 +430,33 @@ public class Repository {
      * @param message
      */
     public static void find(String message) {
-        File[] dirs = COMMITS_DIR.listFiles(File::isDirectory);
-        boolean finded = false;
-        for (int i=0; i<dirs.length; i++) {
-            List<String> files = plainFilenamesIn(dirs[i]);
-            for (String commitID : files) {
-                Commit c = Commit.getCommitFromID(commitID);
-                if (c.getMessage().equals(message)) {
-                    finded = true;
-                    message(commitID);
-                }
-            }
+        /* the message index only reads the bucket of this message */
+        printFound(MessageIndex.LOCAL.findMessage(message));
+    }
+
+    /** Implementation of find -w: find commits whose message contains
+     * all the given words, ignoring case
+     *
+     * @param words
+     */
+    public static void findWords(String words) {
+        printFound(MessageIndex.LOCAL.findWords(words));
+    }
+
+    private static void printFound(List<String> ids) {
+        for (String commitID : ids) {
+            message(commitID);
         }
-        if(!finded) {
+        if(ids.isEmpty()) {
             message("Found no commit with that message.");
         }
     }
 
+    /** Implementation of reindex command, builds the message index again */
+    public static void reindex() {
+        message("Indexed %d commits.", MessageIndex.LOCAL.rebuild());
+    }
+
     /** helper function for status
      *
      * @param heading
@@ -332,7 +475,7 @@ public class Repository {
     public static void status() {
         /* Print branches */
         message("=== Branches ===");
-        List<String> heads = plainFilenamesIn(HEAD_DIR);
+        List<String> heads = getBranchList();
         String currentBranch = getCurrentBranchName();
         for(String branch : heads) {
             if(branch.equals(currentBranch)) {
@@ -342,9 +485,10 @@ public class Repository {
         }
         System.out.println();
         /* Check file in working dir */
-        List<String> filesInCWD = plainFilenamesIn(CWD);
-        List<String> filesInADD = plainFilenamesIn(ADD_DIR);
-        List<String> filesInRemove = plainFilenamesIn(REMOVE_DIR);
+        List<String> filesInCWD = getWorkingFiles();
+        Set<String> setInCWD = new HashSet<>(filesInCWD);
+        Map<String, String> filesInADD = Stage.getAddedMap();
+        Set<String> filesInRemove = Stage.getRemovedSet();
         /* warning:
         In this case, we don't save the commit anymore, so it is valid not to
         create a new BlobTree. */
@@ -359,10 +503,10 @@ public class Repository {
         List<String> untrackedFiles = new ArrayList<>();
         /* Check the file in CWD */
         for (String filename : filesInCWD) {
-            if (filesInADD.contains(filename)) {
+            if (filesInADD.containsKey(filename)) {
                 File filePath = join(CWD, filename);
-                String content = Stage.getContentFromAdd(filename);
-                if (content.equals(readContentsAsString(filePath))) {
+                String stagedID = filesInADD.get(filename);
+                if (stagedID.equals(StatCache.LOCAL.getID(filename, filePath))) {
                     stageFiles.add(filename);
                 }
                 else {
@@ -371,9 +515,8 @@ public class Repository {
             } else if (filesInRemove.contains(filename)) {
                 untrackedFiles.add(filename);
             } else if (commitFiles.contains(filename)) {
-                String content = readContentsAsString(join(CWD, filename));
-                String commitContent = currentCommit.getContentFromName(filename);
-                if (!commitContent.equals(content)) {
+                String id = StatCache.LOCAL.getID(filename, join(CWD, filename));
+                if (!commitTree.get(filename).equals(id)) {
                     modifiedFiles.add(filename);
                 }
             } else {
@@ -381,26 +524,27 @@ public class Repository {
             }
         }
 
-        for (String filename : filesInADD) {
-            if (!filesInCWD.contains(filename)) {
+        for (String filename : filesInADD.keySet()) {
+            if (!setInCWD.contains(filename)) {
                 deletedFiles.add(filename);
             }
         }
 
         for (String filename : filesInRemove) {
-            if (!filesInCWD.contains(filename)) {
+            if (!setInCWD.contains(filename)) {
                 removeFiles.add(filename);
             }
         }
 
         for (String filename : commitFiles) {
-            if (filesInADD.contains(filename) || filesInRemove.contains(filename)) {
+            if (filesInADD.containsKey(filename) || filesInRemove.contains(filename)) {
                 continue;
             }
-            if (!filesInCWD.contains(filename)) {
+            if (!setInCWD.contains(filename)) {
                 deletedFiles.add(filename);
             }
         }
+        StatCache.LOCAL.retainOnly(filesInCWD);
         deletedFiles.sort(Comparator.naturalOrder());
         printStatus("=== Staged Files ===", stageFiles, null);
         printStatus("=== Removed Files ===", removeFiles, null);
@@ -411,10 +555,8 @@ public class Repository {
 
 
     public static void checkoutBranch(String branchName) {
-        List<String> branchList = getBranchList();
         List<String> untrackedList = getUntrackedList();
-        List<String> trackedList = getTrackedList();
-        if (!branchList.contains(branchName)) {
+        if (!branchExists(branchName)) {
             message("No such branch exists.");
             exit(0);
         }
@@ -427,14 +569,7 @@ public class Repository {
             exit(0);
         }
 
-        for (String filename : trackedList) {
-            join(CWD, filename).delete();
-        }
-        Commit c = getBranchCommit(branchName);
-        TreeMap<String, String> map = c.getBlobMap();
-        for (String filename : map.keySet()) {
-            writeContents(join(CWD, filename), Blob.readContentFromID(map.get(filename)));
-        }
+        checkoutCommit(getCurrentCommit(), getBranchCommit(branchName));
         setCurrentBranch(branchName);
         Stage.clearStage();
     }
@@ -445,8 +580,7 @@ public class Repository {
             message("File does not exist in that commit.");
             exit(0);
         }
-        String content = c.getContentFromName(filename);
-        writeContents(join(CWD, filename), content);
+        writeWorkingFile(filename, c.getBlobMap().get(filename));
     }
 
     public static void checkoutDesignatedFile(String commitID, String filename) {
@@ -455,12 +589,11 @@ public class Repository {
             message("File does not exist in that commit.");
             exit(0);
         }
-        String content = c.getContentFromName(filename);
-        writeContents(join(CWD, filename), content);
+        writeWorkingFile(filename, c.getBlobMap().get(filename));
     }
 
     public static void branch(String branchName){
-        if (getBranchList().contains(branchName)) {
+        if (branchExists(branchName)) {
             message("A branch with that name already exists.");
             exit(0);
         }
@@ -469,8 +602,7 @@ public class Repository {
     }
 
     public static void removeBranch(String branchName) {
-        List<String> branchList = getBranchList();
-        if (!branchList.contains(branchName)) {
+        if (!branchExists(branchName)) {
             message("A branch with that name does not exist.");
             exit(0);
         }
@@ -478,28 +610,353 @@ public class Repository {
             message("Cannot remove the current branch.");
             exit(0);
         }
-        File branchPath = join(HEAD_DIR, branchName);
-        branchPath.delete();
+        Refs.LOCAL.delete(branchName);
     }
 
     public static void reset(String commitID) {
+        commitID = Commit.resolveID(commitID);
         List<String> untrackedList = getUntrackedList();
         if (!untrackedList.isEmpty()) {
             message("There is an untracked file in the way; delete it, or add and commit it first.");
             exit(0);
         }
-        TreeMap<String, String> map = Commit.getCommitFromID(commitID).getBlobMap();
-        Set<String> filesInCommit = map.keySet();
+        checkoutCommit(getCurrentCommit(), Commit.getCommitFromID(commitID));
+        setCurrentBranchCommitID(commitID);
+    }
+
+    /** Helper method of checkout branch and reset
+     * Replace the tracked files of commit from in the working dir with the
+     * files of commit to. Only files that differ are touched: the files
+     * that changed between the two commits (a tree diff), and tracked files
+     * that are staged, modified or deleted in the working dir. Identical
+     * files are left alone. The files are written in parallel on the
+     * fork-join pool.
+     *
+     * @param from the commit the working dir is on
+     * @param to
+     */
+    private static void checkoutCommit(Commit from, Commit to) {
+        TreeMap<String, String> fromMap = from.getBlobMap();
+        TreeMap<String, String> toMap = to.getBlobMap();
+        Set<String> paths = new TreeSet<>(Commit.diff(from, to).keySet());
+        paths.addAll(Stage.getAddedMap().keySet());
+        /* a stat is enough for files the stat cache knows */
+        fromMap.keySet().parallelStream().filter(filename -> {
+            File file = join(CWD, filename);
+            return !file.isFile()
+                    || !fromMap.get(filename).equals(StatCache.LOCAL.getID(filename, file));
+        }).collect(Collectors.toList()).forEach(paths::add);
 
-        List<String> trackedList = getTrackedList();
-        for (String filename : trackedList) {
-            join(CWD, filename).delete();
+        /* delete first, a file may be replaced by a dir of the same name */
+        List<String> toWrite = new ArrayList<>();
+        for (String filename : paths) {
+            if (toMap.containsKey(filename)) {
+                toWrite.add(filename);
+            } else if (join(CWD, filename).exists()) {
+                deleteWorkingFile(filename);
+            }
         }
-        for (String filename : filesInCommit) {
-            String content = Blob.readContentFromID(map.get(filename));
-            writeContents(join(CWD, filename), content);
+        toWrite.parallelStream().forEach(filename -> {
+            File file = join(CWD, filename);
+            String blobID = toMap.get(filename);
+            if (!file.isFile() || !blobID.equals(StatCache.LOCAL.getID(filename, file))) {
+                writeWorkingFile(filename, blobID);
+            }
+        });
+    }
+
+    /** Implementation of diff command
+     * no commit: the working dir against the current commit
+     * one commit: the working dir against that commit
+     * two commits: the first commit against the second
+     * Only tracked files of the working dir are compared. Files with equal
+     * blob ids are skipped without being read.
+     *
+     * @param commitIDs
+     * @param stat print a summary of changed lines per file instead
+     */
+    public static void diff(List<String> commitIDs, boolean stat) {
+        Commit from = commitIDs.isEmpty()
+                ? getCurrentCommit() : Commit.getCommitFromID(commitIDs.get(0));
+        TreeMap<String, String> fromMap = from.getBlobMap();
+        boolean toWorking = commitIDs.size() < 2;
+        TreeMap<String, String> changed;
+        if (toWorking) {
+            changed = new TreeMap<>();
+            Set<String> tracked = new TreeSet<>(fromMap.keySet());
+            tracked.addAll(Stage.getAddedMap().keySet());
+            for (String filename : tracked) {
+                File file = join(CWD, filename);
+                String id = file.isFile() ? StatCache.LOCAL.getID(filename, file) : null;
+                if (!Objects.equals(id, fromMap.get(filename))) {
+                    changed.put(filename, id);
+                }
+            }
+        } else {
+            changed = Commit.diff(from, Commit.getCommitFromID(commitIDs.get(1)));
         }
-        setCurrentBranchCommitID(commitID);
+
+        PrintWriter out = bufferedOutput();
+        List<String> statNames = new ArrayList<>();
+        List<int[]> statCounts = new ArrayList<>();
+        for (Map.Entry<String, String> e : changed.entrySet()) {
+            String filename = e.getKey();
+            String oldID = fromMap.get(filename);
+            boolean binary = tooLargeToDiff(oldID, e.getValue(), toWorking ? filename : null);
+            byte[] oldContent = null;
+            byte[] newContent = null;
+            if (!binary) {
+                oldContent = oldID == null ? new byte[0] : Blob.readBytesFromID(oldID);
+                if (e.getValue() == null) {
+                    newContent = new byte[0];
+                } else if (toWorking) {
+                    newContent = readContents(join(CWD, filename));
+                } else {
+                    newContent = Blob.readBytesFromID(e.getValue());
+                }
+                binary = Diff.isBinary(oldContent) || Diff.isBinary(newContent);
+            }
+            List<String> oldLines = binary ? null : Diff.lines(oldContent);
+            List<String> newLines = binary ? null : Diff.lines(newContent);
+            List<Diff.Edit> edits = null;
+            if (!binary) {
+                int[][] interned = Diff.intern(oldLines, newLines);
+                edits = Diff.diff(interned[0], interned[1]);
+            }
+            if (stat) {
+                statNames.add(filename);
+                statCounts.add(binary ? null : Diff.count(edits));
+                continue;
+            }
+            out.append("diff --git a/").append(filename).append(" b/").append(filename).append('\n');
+            String oldName = oldID == null ? "/dev/null" : "a/" + filename;
+            String newName = e.getValue() == null ? "/dev/null" : "b/" + filename;
+            if (binary) {
+                out.append("Binary files ").append(oldName).append(" and ")
+                        .append(newName).append(" differ\n");
+            } else {
+                Diff.printUnified(out, oldName, newName, oldLines, newLines, edits);
+            }
+        }
+        if (stat) {
+            printDiffStat(out, statNames, statCounts);
+        }
+        out.flush();
+    }
+
+    /** Helper method of diff
+     * Check whether either version of a file is over Diff.MAX_SIZE, without
+     * reading it. Such files are shown like binary files, since diffing
+     * them needs all their lines in memory.
+     *
+     * @param oldID blob id of the old version, or null
+     * @param newID blob id of the new version, or null
+     * @param workingName the name of the new version in the working dir,
+     *                    or null if the new version is a blob
+     */
+    private static boolean tooLargeToDiff(String oldID, String newID, String workingName) {
+        if (oldID != null && ObjectStore.LOCAL.blobSize(oldID) > Diff.MAX_SIZE) {
+            return true;
+        }
+        if (newID == null) {
+            return false;
+        }
+        long newSize = workingName != null
+                ? join(CWD, workingName).length() : ObjectStore.LOCAL.blobSize(newID);
+        return newSize > Diff.MAX_SIZE;
+    }
+
+    /** Helper method of diff --stat
+     *
+     * @param out
+     * @param names
+     * @param counts {deleted, inserted} lines of every file, null for binary files
+     */
+    private static void printDiffStat(PrintWriter out, List<String> names, List<int[]> counts) {
+        if (names.isEmpty()) {
+            return;
+        }
+        int nameWidth = 0;
+        int maxTotal = 0;
+        int insertions = 0;
+        int deletions = 0;
+        for (int i = 0; i < names.size(); i++) {
+            nameWidth = Math.max(nameWidth, names.get(i).length());
+            int[] c = counts.get(i);
+            if (c != null) {
+                maxTotal = Math.max(maxTotal, c[0] + c[1]);
+                deletions += c[0];
+                insertions += c[1];
+            }
+        }
+        int countWidth = Math.max(3, Integer.toString(maxTotal).length());
+        for (int i = 0; i < names.size(); i++) {
+            if (counts.get(i) == null) {
+                out.append(' ').append(Diff.pad(names.get(i), nameWidth)).append(" | ")
+                        .append(Diff.pad("Bin", countWidth)).append('\n');
+            } else {
+                Diff.printStatLine(out, names.get(i), nameWidth, counts.get(i),
+                        maxTotal, countWidth);
+            }
+        }
+        Diff.printStatSummary(out, names.size(), insertions, deletions);
+    }
+
+    /* REMOTES */
+
+    /** Implementation of add-remote command
+     * Record the .gitlet dir of another repository, '/' separated
+     * @param name
+     * @param path
+     */
+    public static void addRemote(String name, String path) {
+        File config = join(Remote.REMOTES_DIR, name);
+        if (Journal.exists(config)) {
+            message("A remote with that name already exists.");
+            exit(0);
+        }
+        Remote.REMOTES_DIR.mkdirs();
+        Journal.write(config, path.replace("/", File.separator));
+    }
+
+    public static void removeRemote(String name) {
+        File config = join(Remote.REMOTES_DIR, name);
+        if (!Journal.exists(config)) {
+            message("A remote with that name does not exist.");
+            exit(0);
+        }
+        Journal.delete(config);
+    }
+
+    /** Implementation of fetch command
+     * Copy the commits of a remote branch that are missing here, and point
+     * the branch [remote]/[branch] at its head
+     * @param remoteName
+     * @param branchName
+     */
+    public static void fetch(String remoteName, String branchName) {
+        Remote remote = Remote.get(remoteName);
+        remoteHashingCheck(remote);
+        String head = remote.head(branchName);
+        if (head == null) {
+            message("That remote does not have that branch.");
+            exit(0);
+        }
+        remote.sendTo(Remote.LOCAL, head);
+        saveHead(remoteName + "/" + branchName, head);
+    }
+
+    /** Implementation of push command
+     * Copy the commits of the current branch that the remote is missing and
+     * move the remote branch to the current head. Only allowed if the
+     * remote branch is in the history of the current head.
+     * @param remoteName
+     * @param branchName
+     */
+    public static void push(String remoteName, String branchName) {
+        Remote remote = Remote.get(remoteName);
+        remoteHashingCheck(remote);
+        String localHead = getBranchCommitID(getCurrentBranchName());
+        String remoteHead = remote.head(branchName);
+        if (remoteHead != null && !Remote.LOCAL.isAncestor(remoteHead, localHead)) {
+            message("Please pull down remote changes before pushing.");
+            exit(0);
+        }
+        Remote.LOCAL.sendTo(remote, localHead);
+        remote.setHead(branchName, localHead);
+    }
+
+    /** Objects can only move between repositories with the same ids */
+    private static void remoteHashingCheck(Remote remote) {
+        if (remote.getHashing() != Hashing.local()) {
+            message("The remote uses a different hash algorithm.");
+            exit(0);
+        }
+    }
+
+    /** Implementation of pull command: fetch, then merge [remote]/[branch] */
+    public static void pull(String remoteName, String branchName) {
+        fetch(remoteName, branchName);
+        merge(remoteName + "/" + branchName);
+    }
+
+    /** Implementation of pack-refs command
+     * Move every branch into the packed-refs file
+     */
+    public static void packRefs() {
+        message("Packed %d refs.", Refs.LOCAL.pack());
+    }
+
+    /** Implementation of repack command
+     * Move all objects into one pack file, the versions of each file stored
+     * as deltas of each other
+     */
+    public static void repack() {
+        int n = ObjectStore.LOCAL.repack(objectPaths(CommitIndex.LOCAL.allIDs()), id -> true);
+        message("Packed %d objects.", n);
+    }
+
+    /** Helper method of repack and gc
+     * Get where every blob and tree of commitIDs is, id -> path, newest
+     * commits first, so repack can store the versions of a file as deltas
+     * @param commitIDs
+     * @return
+     */
+    private static LinkedHashMap<String, String> objectPaths(List<String> commitIDs) {
+        List<Commit> commits = new ArrayList<>();
+        for (String id : commitIDs) {
+            commits.add(Commit.peek(id));
+        }
+        commits.sort(Comparator.comparing(Commit::getDate).reversed());
+        LinkedHashMap<String, String> paths = new LinkedHashMap<>();
+        for (Commit c : commits) {
+            if (c.getTreeID() != null) {
+                Tree.paths(ObjectStore.LOCAL, c.getTreeID(), "", paths);
+            } else {
+                for (Map.Entry<String, String> e : c.getBlobMap().entrySet()) {
+                    paths.putIfAbsent(e.getValue(), e.getKey());
+                }
+            }
+        }
+        return paths;
+    }
+
+    /** Implementation of gc command
+     * Delete the objects no branch and no staged file can reach
+     * @param dryRun only list the unreachable objects
+     * @param repack also repack what is left, which drops unreachable packed objects
+     */
+    public static void gc(boolean dryRun, boolean repack) {
+        List<String> heads = new ArrayList<>();
+        for (String branch : getBranchList()) {
+            heads.add(getBranchCommitID(branch));
+        }
+        GarbageCollector collector = new GarbageCollector(ObjectStore.LOCAL, CommitGraph.LOCAL);
+        collector.mark(heads, Stage.getAddedMap().values());
+        if (dryRun) {
+            PrintWriter out = bufferedOutput();
+            for (String object : collector.unreachable()) {
+                out.println(object);
+            }
+            out.printf("Found %d unreachable objects.%n", collector.unreachableCount());
+            out.flush();
+            return;
+        }
+        int removed;
+        if (repack) {
+            ObjectStore.LOCAL.repack(objectPaths(collector.reachableCommits()),
+                    collector::isReachable);
+            removed = collector.unreachableCount();
+        } else {
+            removed = collector.sweep();
+        }
+        if (collector.dropsCommits()) {
+            CommitCache.clear();
+            CommitIndex.LOCAL.rebuild();
+            CommitGraph.LOCAL.rebuild();
+            MessageIndex.LOCAL.rebuild();
+        }
+        message("Removed %d unreachable objects.", removed);
     }
 
     /** Helper method of merge
@@ -509,25 +966,7 @@ public class Repository {
      * @return
      */
     private static String getSplitPoint(String currentID, String branchID) {
-        HashMap<String, Integer> mapOfA = Commit.getInheritedMap(currentID);
-        HashMap<String, Integer> mapOfB = Commit.getInheritedMap(branchID);
-        int minVal = -1;
-        String resultID = null;
-
-        for (String id : mapOfA.keySet()) {
-            if (mapOfB.containsKey(id)) {
-                if (minVal == -1) {
-                    minVal = mapOfA.get(id);
-                    resultID = id;
-                    continue;
-                }
-                if (minVal > mapOfA.get(id)) {
-                    minVal = mapOfA.get(id);
-                    resultID = id;
-                }
-            }
-        }
-        return resultID;
+        return CommitGraph.LOCAL.mergeBase(currentID, branchID);
     }
 
     public static void mergeChecker(String branchName) {
@@ -535,7 +974,7 @@ public class Repository {
             message("You have uncommitted changes.");
             exit(0);
         }
-        if (!getBranchList().contains(branchName)) {
+        if (!branchExists(branchName)) {
             message("A branch with that name does not exist.");
             exit(0);
         }
@@ -549,24 +988,44 @@ public class Repository {
         }
 
     }
-    private static Blob writeDiff(String filename, String idInCurrent, String idInBranch) {
-        String curContent = Blob.readContentFromID(idInCurrent);
-        String braContent = Blob.readContentFromID(idInBranch);
-        String resContent = null;
-        if (curContent == null) {
-            resContent = "<<<<<<< HEAD\n"+"=======\n"+braContent+">>>>>>>";
-        }
-        else if (braContent == null) {
-            resContent = "<<<<<<< HEAD\n"+curContent+"=======\n"+">>>>>>>";
-        }
-        else {
-            resContent = "<<<<<<< HEAD\n"+curContent+"=======\n"
-                    +braContent+">>>>>>>";
+    /** Helper method of merge
+     * Merge the versions of filename line by line (diff3) and write the
+     * result to the working dir and into mergeCommit. Only changes of the
+     * two branches that overlap become conflicts. The blobs are streamed,
+     * any of them may be null for a file that doesn't exist. A file that
+     * one branch changed and the other deleted is always a conflict of the
+     * two whole versions: diff3 would take the change if the deleted side
+     * had no lines to delete, i.e. the file was empty at the split point.
+     *
+     * @return whether there was a conflict
+     */
+    private static boolean mergeFile(Commit mergeCommit, String filename, String idInSplit,
+                                     String idInCurrent, String idInBranch) {
+        File file = join(CWD, filename);
+        file.getParentFile().mkdirs();
+        boolean conflict;
+        try (InputStream base = openBlob(idInSplit);
+             InputStream current = openBlob(idInCurrent);
+             InputStream branch = openBlob(idInBranch);
+             OutputStream out = new BufferedOutputStream(
+                     Files.newOutputStream(file.toPath()), BUFFER_SIZE)) {
+            if (idInCurrent == null || idInBranch == null) {
+                Diff3.conflict(current, branch, out);
+                conflict = true;
+            } else {
+                conflict = Diff3.merge(base, current, branch, out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
-        writeContents(join(CWD, filename), resContent);
-        Blob blob = new Blob(resContent);
-        blob.saveBlob();
-        return blob;
+        Blob b = new Blob(file);
+        b.saveBlob();
+        mergeCommit.addFile(filename, b.getId());
+        return conflict;
+    }
+
+    private static InputStream openBlob(String blobID) {
+        return blobID == null ? null : ObjectStore.LOCAL.open(ObjectStore.BLOB, blobID);
     }
 
     public static void merge(String branchName) {
@@ -583,7 +1042,7 @@ public class Repository {
         if (splitID.equals(currentID)) {
             checkoutBranch(branchName);
             message("Current branch fast-forwarded.");
-            exit(0);
+            return;
         }
 
         Commit currentCommit = Commit.getCommitFromID(currentID);
@@ -591,9 +1050,8 @@ public class Repository {
         Commit splitCommit = Commit.getCommitFromID(splitID);
         boolean isConflicted = false;
 
-        Commit mergeCommit = new Commit(currentCommit, new Date(),
+        Commit mergeCommit = new Commit(currentID, new Date(),
                 "Merged " + getCurrentBranchName() + " into " + branchName + ".");
-        TreeMap<String, String> mergeMap = mergeCommit.getBlobMap();
 
         Set<String> FileSet = new HashSet<String>();
         TreeMap<String, String> currentMap = currentCommit.getBlobMap();
@@ -618,7 +1076,7 @@ public class Repository {
 
                 /* case 1 */
                 if (idInCurrent.equals(idInSplit) && !idInCurrent.equals(idInBranch)) {
-                    mergeMap.put(filename, idInBranch);
+                    mergeCommit.addFile(filename, idInBranch);
                     checkoutDesignatedFile(branchID, filename);
                     continue;
                 }
@@ -635,16 +1093,15 @@ public class Repository {
                 /* subcase of case 8 */
                 /* comment: logic can be simplified */
                 if (!idInCurrent.equals(idInBranch)) {
-                    Blob b = writeDiff(filename, idInCurrent, idInBranch);
-                    isConflicted = true;
-                    mergeMap.put(filename, b.getId());
+                    isConflicted |= mergeFile(mergeCommit, filename,
+                            splitMap.get(filename), idInCurrent, idInBranch);
                     continue;
                 }
             }
             /* subcase of case 3 */
             if (!currentMap.containsKey(filename) && splitMap.containsKey(filename) &&
                     !branchMap.containsKey(filename)) {
-                join(CWD, filename).delete();
+                deleteWorkingFile(filename);
             }
             /* case 4 */
             if (currentMap.containsKey(filename) && !splitMap.containsKey(filename) &&
@@ -655,7 +1112,7 @@ public class Repository {
             if (!currentMap.containsKey(filename) && !splitMap.containsKey(filename) &&
                     branchMap.containsKey(filename)) {
                 checkoutDesignatedFile(branchID, filename);
-                mergeMap.put(filename, branchMap.get(filename));
+                mergeCommit.addFile(filename, branchMap.get(filename));
             }
             /* case 6 */
             if (currentMap.containsKey(filename) && splitMap.containsKey(filename) &&
@@ -663,15 +1120,15 @@ public class Repository {
                 String idInCurrent = currentMap.get(filename);
                 String idInSplit = splitMap.get(filename);
                 if (idInCurrent.equals(idInSplit)) {
-                    join(CWD, filename).delete();
-                    mergeMap.remove(filename);
+                    deleteWorkingFile(filename);
+                    mergeCommit.removeFile(filename);
                 }
             }
             /* case 7 */
             if (!currentMap.containsKey(filename) && splitMap.containsKey(filename) &&
                     branchMap.containsKey(filename)) {
                 if (splitMap.get(filename).equals(branchMap.get(filename))) {
-                    join(CWD, filename).delete();
+                    deleteWorkingFile(filename);
                 }
             }
             /* subcase of case 8 */
@@ -680,9 +1137,8 @@ public class Repository {
                 String idInSplit = splitMap.get(filename);
                 String idInBranch = branchMap.get(filename);
                 if (!idInSplit.equals(idInBranch)) {
-                    Blob b = writeDiff(filename, null, idInBranch);
-                    isConflicted = true;
-                    mergeMap.put(filename, b.getId());
+                    isConflicted |= mergeFile(mergeCommit, filename,
+                            splitMap.get(filename), null, idInBranch);
                     continue;
                 }
             }
@@ -692,9 +1148,8 @@ public class Repository {
                 String idInSplit = splitMap.get(filename);
                 String idInCurrent = currentMap.get(filename);
                 if (!idInCurrent.equals(idInSplit)) {
-                    Blob b = writeDiff(filename, idInCurrent, null);
-                    isConflicted = true;
-                    mergeMap.put(filename, b.getId());
+                    isConflicted |= mergeFile(mergeCommit, filename,
+                            splitMap.get(filename), idInCurrent, null);
                     continue;
                 }
             }
@@ -703,9 +1158,8 @@ public class Repository {
                 String idInCurrent = currentMap.get(filename);
                 String idInBranch = branchMap.get(filename);
                 if (!idInCurrent.equals(idInBranch)) {
-                    Blob b = writeDiff(filename, idInCurrent, idInBranch);
-                    isConflicted = true;
-                    mergeMap.put(filename, b.getId());
+                    isConflicted |= mergeFile(mergeCommit, filename,
+                            splitMap.get(filename), idInCurrent, idInBranch);
                     continue;
                 }
             }
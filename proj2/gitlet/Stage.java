@@ -1,86 +1,221 @@
 package gitlet;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import static gitlet.Utils.*;
 import static gitlet.Repository.ADD_DIR;
+import static gitlet.Repository.INDEX_FILE;
 import static gitlet.Repository.REMOVE_DIR;
 
 /** This class manage all the files in Stage area.
  *
+ *  The stage is a single index file, .gitlet/index, that maps every staged
+ *  filename to the blob id staged for addition, or marks it as staged for
+ *  removal. The blobs themselves are saved in the object store by add, so
+ *  staging a file never makes a copy of it.
+ *
+ *  The index is read once per command and written back by save().
  */
 public class Stage {
+    private static final int MAGIC = 0x47535447;
+    private static final byte ADDED = 1;
+    private static final byte REMOVED = 2;
+
+    /** filename -> staged blob id, loaded lazily by load() */
+    private static TreeMap<String, String> added;
+    /** filenames staged for removal */
+    private static TreeSet<String> removed;
+    private static boolean dirty;
+
+    /** Forget the loaded index and anything not saved, so the next use
+     *  reads .gitlet/index again. The daemon does this before every
+     *  command. */
+    static void reset() {
+        added = null;
+        removed = null;
+        dirty = false;
+    }
+
+    private static void load() {
+        if (added != null) {
+            return;
+        }
+        added = new TreeMap<>();
+        removed = new TreeSet<>();
+        if (Journal.exists(INDEX_FILE)) {
+            try (DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(Journal.read(INDEX_FILE)))) {
+                if (in.readInt() != MAGIC) {
+                    throw error("Corrupted index");
+                }
+                int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    String filename = in.readUTF();
+                    byte kind = in.readByte();
+                    String id = in.readUTF();
+                    if (kind == ADDED) {
+                        added.put(filename, id);
+                    } else {
+                        removed.add(filename);
+                    }
+                }
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+        }
+        migrateStageDirs();
+    }
+
+    /** Move a stage written by an older gitlet, which kept full copies in
+     *  refs/addfile and markers in refs/rmfile, into the index.
+     *  The old files are deleted through the journal, together with the
+     *  index write, so a command that exits early can't lose the stage. */
+    private static void migrateStageDirs() {
+        boolean migrated = false;
+        List<String> addFiles = plainFilenamesIn(ADD_DIR);
+        if (addFiles != null) {
+            for (String filename : addFiles) {
+                Blob b = new Blob(join(ADD_DIR, filename));
+                b.saveBlob();
+                added.put(filename, b.getId());
+                Journal.delete(join(ADD_DIR, filename));
+            }
+            /* after the files in it */
+            Journal.delete(ADD_DIR);
+            migrated = true;
+        }
+        List<String> rmFiles = plainFilenamesIn(REMOVE_DIR);
+        if (rmFiles != null) {
+            for (String filename : rmFiles) {
+                removed.add(filename);
+                Journal.delete(join(REMOVE_DIR, filename));
+            }
+            Journal.delete(REMOVE_DIR);
+            migrated = true;
+        }
+        if (migrated) {
+            dirty = true;
+            /* exit() skips the save at the end of the command */
+            save();
+        }
+    }
+
+    /** Write the index back if it changed during this command */
+    public static void save() {
+        if (!dirty || !INDEX_FILE.getParentFile().isDirectory()) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(added.size() + removed.size());
+            for (Map.Entry<String, String> e : added.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeByte(ADDED);
+                out.writeUTF(e.getValue());
+            }
+            for (String filename : removed) {
+                out.writeUTF(filename);
+                out.writeByte(REMOVED);
+                out.writeUTF("");
+            }
+        } catch (IOException excp) {
+            throw error("Internal error writing index.");
+        }
+        /* replaced together with the refs the command changed */
+        Journal.write(INDEX_FILE, bytes.toByteArray());
+        dirty = false;
+    }
 
     /** This method add the given file to the staged area
-     * warning: this method doesn't check whether the file should be added
+     * warning: this method doesn't check whether the file should be added,
+     * and the blob blobID should already be saved
      *
      * @param filename
-     * @param content
+     * @param blobID
      */
-    public static void stageFile(String filename, String content) {
-        File addPath = join(ADD_DIR, filename);
-        writeContents(addPath, content);
-        File removePath = join(REMOVE_DIR, filename);
-        removePath.delete();
+    public static void stageFile(String filename, String blobID) {
+        load();
+        added.put(filename, blobID);
+        removed.remove(filename);
+        dirty = true;
     }
 
-    /** Add an empty file into dir
+    /** Stage the given file for removal
      *
      * @param filename
-     * @param dir
      */
-    public static void addEmptyFile(String filename, File dir) {
-        createEmptyFile(join(dir,filename));
+    public static void stageRemoval(String filename) {
+        load();
+        added.remove(filename);
+        removed.add(filename);
+        dirty = true;
     }
 
-    /** Remove the given file from the given dir
+    /** Remove the given file from the stage, whether it was staged
+     * for addition or for removal
      *
      * @param filename
-     * @param dir
      */
-    public static void removeFile(String filename, File dir) {
-        join(dir, filename).delete();
+    public static void unstage(String filename) {
+        load();
+        if (added.remove(filename) != null | removed.remove(filename)) {
+            dirty = true;
+        }
+    }
+
+    public static boolean isStagedForAddition(String filename) {
+        load();
+        return added.containsKey(filename);
+    }
+
+    public static boolean isStagedForRemoval(String filename) {
+        load();
+        return removed.contains(filename);
     }
 
-    /** Check whether dir contains the given file
+    /** get the blob id staged for filename, or null
      *
      * @param filename
-     * @param dir
      * @return
      */
-    public static boolean hasFile(String filename, File dir) {
-        var fileList = plainFilenamesIn(dir);
-        return fileList.contains(filename);
+    public static String getStagedID(String filename) {
+        load();
+        return added.get(filename);
     }
 
-    public static boolean isEmpty() {
-        return plainFilenamesIn(ADD_DIR).isEmpty() &&
-                plainFilenamesIn(REMOVE_DIR).isEmpty();
+    /** Get all files staged for addition, mapped to their blob ids, in order */
+    public static TreeMap<String, String> getAddedMap() {
+        load();
+        return added;
     }
 
-    public static void clearStage() {
-        List<String> addList = plainFilenamesIn(ADD_DIR);
-        List<String> rmList = plainFilenamesIn(REMOVE_DIR);
-        for(String i: addList) {
-            join(ADD_DIR, i).delete();
-        }
-        for(String i: rmList) {
-            join(REMOVE_DIR, i).delete();
-        }
+    /** Get all files staged for removal, in order */
+    public static Set<String> getRemovedSet() {
+        load();
+        return removed;
     }
 
-    /** get file content from name in the ADD_DIR
-     *
-     * @param filename
-     * @return
-     */
-    public static String getContentFromAdd(String filename) {
-        if(!hasFile(filename, ADD_DIR)) {
-            message("file doesn't exist in the addfile dir");
-            System.exit(0);
+    public static boolean isEmpty() {
+        load();
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    public static void clearStage() {
+        load();
+        if (!isEmpty()) {
+            added.clear();
+            removed.clear();
+            dirty = true;
         }
-        File f = join(ADD_DIR, filename);
-        return readContentsAsString(f);
     }
 }
@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Utils.*;
+
+/** Remembers the size, modification time and blob id of working files,
+ *  so a file that hasn't changed since it was last hashed is recognized
+ *  with a single stat instead of reading its content again.
+ *
+ *  The cache is stored in .gitlet/stat-cache and written back once per
+ *  command by save().
+ *
+ *  A file modified within the same clock tick as it was hashed could keep
+ *  its size and modification time, so entries whose modification time is
+ *  too close to the time they were hashed are not trusted ("racy" entries)
+ *  and the file is hashed again next time. That is also why files written
+ *  by checkout, merge or reset aren't recorded when they are written.
+ */
+public class StatCache {
+    private static final int MAGIC = 0x47534331;
+    /** Modification times closer than this to the hash time are not trusted */
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /** The stat cache of the repository in the current working directory */
+    public static final StatCache LOCAL = new StatCache(join(Repository.GITLET_DIR, "stat-cache"));
+
+    private static class Entry {
+        final long size;
+        final long mtime;
+        final String id;
+
+        Entry(long size, long mtime, String id) {
+            this.size = size;
+            this.mtime = mtime;
+            this.id = id;
+        }
+    }
+
+    private final File cacheFile;
+    /** Loaded lazily by load() */
+    private HashMap<String, Entry> entries;
+    private boolean dirty;
+    /** fileStamp of cacheFile when the cache was loaded */
+    private String loadedStamp;
+
+    public StatCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    private synchronized void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new HashMap<>();
+        loadedStamp = fileStamp(cacheFile);
+        if (!cacheFile.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(readContents(cacheFile)))) {
+            if (in.readInt() != MAGIC) {
+                return;
+            }
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                String id = in.readUTF();
+                entries.put(path, new Entry(size, mtime, id));
+            }
+        } catch (IOException excp) {
+            /* a broken cache is only a slower cache */
+            entries.clear();
+        }
+    }
+
+    /** Forget the loaded entries if the cache file changed since they were
+     *  loaded, e.g. by another process. Used by the daemon, which keeps
+     *  them loaded from one command to the next. Entries not saved yet are
+     *  kept, they are true whoever wrote the file. */
+    public synchronized void refresh() {
+        if (entries != null && !dirty && !fileStamp(cacheFile).equals(loadedStamp)) {
+            entries = null;
+        }
+    }
+
+    /** Return the blob id of the working file FILE, stored under PATH.
+     *  The file is only read if its size or modification time differ from
+     *  the cached entry. Safe to call from several threads, files are
+     *  hashed outside the lock. */
+    public String getID(String path, File file) {
+        load();
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        long size = attrs.size();
+        long mtime = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        Entry e;
+        synchronized (this) {
+            e = entries.get(path);
+        }
+        if (e != null && e.size == size && e.mtime == mtime) {
+            return e.id;
+        }
+        String id = hash(file);
+        record(path, size, mtime, id);
+        return id;
+    }
+
+    private synchronized void record(String path, long size, long mtime, String id) {
+        long now = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        if (now - mtime < RACY_NANOS) {
+            if (entries.remove(path) != null) {
+                dirty = true;
+            }
+            return;
+        }
+        entries.put(path, new Entry(size, mtime, id));
+        dirty = true;
+    }
+
+    /** Forget every path not in PATHS, e.g. files deleted from the working dir */
+    public synchronized void retainOnly(Collection<String> paths) {
+        load();
+        HashSet<String> keep = new HashSet<>(paths);
+        if (entries.keySet().removeIf(p -> !keep.contains(p))) {
+            dirty = true;
+        }
+    }
+
+    /** Write the cache back if it changed during this command */
+    public synchronized void save() {
+        if (!dirty || !cacheFile.getParentFile().isDirectory()) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (HashMap.Entry<String, Entry> e : entries.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().size);
+                out.writeLong(e.getValue().mtime);
+                out.writeUTF(e.getValue().id);
+            }
+        } catch (IOException excp) {
+            throw error("Internal error writing stat cache.");
+        }
+        File tmp = tempFileFor(cacheFile);
+        writeContents(tmp, bytes.toByteArray());
+        try {
+            Files.move(tmp.toPath(), cacheFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        dirty = false;
+        /* the file now holds what is loaded */
+        loadedStamp = fileStamp(cacheFile);
+    }
+}
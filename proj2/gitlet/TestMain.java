@@ -32,7 +32,7 @@ public class TestMain {
     @Test
     public void testInitCommit() {
         Commit c = Commit.initCommit();
-        assertEquals("cddce00c2abb1396801f8a0cc5358b2447f137ce", c.getCommitID());
+        assertEquals("89c9553e1b94bce402b36ff46f4f6bed52be6872", c.getCommitID());
     }
 
     @Test
@@ -40,12 +40,12 @@ public class TestMain {
         Commit c = Commit.initCommit();
         c.addFile("f1", "addddc");
         c.addFile("f2", "aseees");
-        assertEquals("aa5cf4cd6efa466ece870b5e8de22a66883bde5b", c.getCommitID());
+        assertEquals("153325adf12b9b2d944b36c576596068ba1b614d", c.getCommitID());
     }
 
     @Test
     public void testInitRepo() {
-        Repository.initRepository();
+        Repository.initRepository(Hashing.SHA1);
     }
     @Test
     public void testGetBranch() {
@@ -117,7 +117,7 @@ public class TestMain {
     }
     @Test
     public void testLog(){
-        Repository.log();
+        Repository.log(-1, false);
     }
     @Test
     public void testPrintNull() {
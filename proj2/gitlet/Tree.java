@@ -0,0 +1,272 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static gitlet.Utils.*;
+
+/** A directory snapshot: the files and subdirectories of one directory.
+ *
+ *  A tree is stored as an object of type ObjectStore.TREE with one line per
+ *  entry, sorted by name:
+ *      blob [blobID] [name]
+ *      tree [treeID] [name]
+ *  Its id is the hash of "tree " followed by that content, so a tree never
+ *  shares an id with a blob of the same bytes.
+ *
+ *  Trees are content addressed, so commits share every directory they
+ *  didn't change: a commit that changes one file only writes the trees on
+ *  the path to that file.
+ */
+public class Tree {
+    private static final String BLOB = "blob";
+    private static final String TREE = "tree";
+
+    /** One entry of a tree, a file or a subdirectory */
+    private static class Entry {
+        final boolean isTree;
+        final String id;
+
+        Entry(boolean isTree, String id) {
+            this.isTree = isTree;
+            this.id = id;
+        }
+    }
+
+    /** name -> entry, in order */
+    private final TreeMap<String, Entry> entries;
+    private final String id;
+    private final byte[] content;
+
+    private Tree(TreeMap<String, Entry> entries) {
+        this.entries = entries;
+        this.content = encode(entries);
+        this.id = hash("tree ", content);
+    }
+
+    private Tree(String id, byte[] content) {
+        this.id = id;
+        this.content = content;
+        this.entries = decode(content);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /** Save the tree in STORE unless it is already there */
+    public void save(ObjectStore store) {
+        store.write(ObjectStore.TREE, id, content);
+    }
+
+    private static byte[] encode(TreeMap<String, Entry> entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            String line = (e.getValue().isTree ? TREE : BLOB) + " "
+                    + e.getValue().id + " " + e.getKey() + "\n";
+            out.writeBytes(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    private static TreeMap<String, Entry> decode(byte[] content) {
+        TreeMap<String, Entry> result = new TreeMap<>();
+        String s = new String(content, StandardCharsets.UTF_8);
+        int start = 0;
+        while (start < s.length()) {
+            int end = s.indexOf('\n', start);
+            int space1 = s.indexOf(' ', start);
+            int space2 = s.indexOf(' ', space1 + 1);
+            if (end < 0 || space1 < 0 || space2 < 0 || space2 > end) {
+                throw error("Corrupted tree");
+            }
+            boolean isTree = s.startsWith(TREE, start);
+            result.put(s.substring(space2 + 1, end),
+                    new Entry(isTree, s.substring(space1 + 1, space2)));
+            start = end + 1;
+        }
+        return result;
+    }
+
+    /** Read tree TREEID from STORE */
+    public static Tree read(ObjectStore store, String treeID) {
+        byte[] content = store.read(ObjectStore.TREE, treeID);
+        if (content == null) {
+            throw error("Tree %s doesn't exist", treeID);
+        }
+        return new Tree(treeID, content);
+    }
+
+    /** Return every file under tree TREEID, as '/'-separated path -> blobID */
+    public static TreeMap<String, String> flatten(ObjectStore store, String treeID) {
+        TreeMap<String, String> result = new TreeMap<>();
+        flatten(store, treeID, "", result);
+        return result;
+    }
+
+    private static void flatten(ObjectStore store, String treeID, String prefix,
+                                TreeMap<String, String> result) {
+        for (Map.Entry<String, Entry> e : read(store, treeID).entries.entrySet()) {
+            if (e.getValue().isTree) {
+                flatten(store, e.getValue().id, prefix + e.getKey() + "/", result);
+            } else {
+                result.put(prefix + e.getKey(), e.getValue().id);
+            }
+        }
+    }
+
+    /** Record where the trees and blobs under tree TREEID are, as
+     *  id -> '/'-separated path ("" for the root tree), for the ids not in
+     *  PATHS yet. Subtrees already in PATHS are not read again, so calling
+     *  this for many commits reads each tree once.
+     */
+    public static void paths(ObjectStore store, String treeID, String path,
+                             Map<String, String> paths) {
+        if (paths.putIfAbsent(treeID, path) != null) {
+            return;
+        }
+        String prefix = path.isEmpty() ? "" : path + "/";
+        for (Map.Entry<String, Entry> e : read(store, treeID).entries.entrySet()) {
+            if (e.getValue().isTree) {
+                paths(store, e.getValue().id, prefix + e.getKey(), paths);
+            } else {
+                paths.putIfAbsent(e.getValue().id, prefix + e.getKey());
+            }
+        }
+    }
+
+    /** Add tree TREEID and the trees and blobs under it to OBJECTS, as
+     *  id -> ObjectStore type. Trees for which SKIP is true are left out
+     *  without being read, with everything under them.
+     */
+    public static void collect(ObjectStore store, String treeID, Predicate<String> skip,
+                               Map<String, Byte> objects) {
+        walk(store, treeID,
+                t -> !skip.test(t) && objects.putIfAbsent(t, ObjectStore.TREE) == null,
+                b -> objects.putIfAbsent(b, ObjectStore.BLOB));
+    }
+
+    /** Visit tree TREEID and everything under it: ENTER is asked about
+     *  every tree, which is only read and walked into if it says yes, and
+     *  BLOB is given every blob id of the trees walked.
+     */
+    public static void walk(ObjectStore store, String treeID, Predicate<String> enter,
+                            Consumer<String> blob) {
+        if (!enter.test(treeID)) {
+            return;
+        }
+        for (Entry e : read(store, treeID).entries.values()) {
+            if (e.isTree) {
+                walk(store, e.id, enter, blob);
+            } else {
+                blob.accept(e.id);
+            }
+        }
+    }
+
+    /** Return the files that differ between tree OLDID and tree NEWID, as
+     *  '/'-separated path -> blob id in NEWID, or null if NEWID doesn't have
+     *  the file. Either id may be null for an empty tree.
+     *  Subtrees with the same id in both are skipped without being read, so
+     *  the cost depends on what changed, not on the size of the trees.
+     */
+    public static TreeMap<String, String> diff(ObjectStore store, String oldID, String newID) {
+        TreeMap<String, String> result = new TreeMap<>();
+        diff(store, oldID, newID, "", result);
+        return result;
+    }
+
+    private static void diff(ObjectStore store, String oldID, String newID, String prefix,
+                             TreeMap<String, String> result) {
+        if (oldID != null && oldID.equals(newID)) {
+            return;
+        }
+        TreeMap<String, Entry> oldEntries =
+                oldID == null ? new TreeMap<>() : read(store, oldID).entries;
+        TreeMap<String, Entry> newEntries =
+                newID == null ? new TreeMap<>() : read(store, newID).entries;
+        TreeSet<String> names = new TreeSet<>(oldEntries.keySet());
+        names.addAll(newEntries.keySet());
+        for (String name : names) {
+            Entry o = oldEntries.get(name);
+            Entry n = newEntries.get(name);
+            if (o != null && n != null && o.isTree == n.isTree && o.id.equals(n.id)) {
+                continue;
+            }
+            String path = prefix + name;
+            /* a file that became a directory or the other way round is
+             * removed on one side and added on the other */
+            String oldTree = o != null && o.isTree ? o.id : null;
+            String newTree = n != null && n.isTree ? n.id : null;
+            if (oldTree != null || newTree != null) {
+                diff(store, oldTree, newTree, path + "/", result);
+            }
+            if (o != null && !o.isTree) {
+                result.put(path, null);
+            }
+            if (n != null && !n.isTree) {
+                result.put(path, n.id);
+            }
+        }
+    }
+
+    /** Apply CHANGES to tree BASEID and return the id of the resulting tree.
+     *  CHANGES maps '/'-separated paths to their new blob id, or to null for
+     *  removed files. BASEID may be null for an empty tree.
+     *  Only the directories on the paths of the changes are read and
+     *  rebuilt, every other subtree is reused by id. The new trees are
+     *  added to NEWTREES and not saved. Directories left empty disappear.
+     */
+    public static String update(ObjectStore store, String baseID,
+                                TreeMap<String, String> changes, List<Tree> newTrees) {
+        return update(store, baseID, changes, newTrees, true);
+    }
+
+    private static String update(ObjectStore store, String baseID,
+                                 TreeMap<String, String> changes,
+                                 List<Tree> newTrees, boolean isRoot) {
+        TreeMap<String, Entry> entries = baseID == null
+                ? new TreeMap<>() : new TreeMap<>(read(store, baseID).entries);
+
+        /* group the changes below each subdirectory */
+        TreeMap<String, TreeMap<String, String>> subChanges = new TreeMap<>();
+        for (Map.Entry<String, String> c : changes.entrySet()) {
+            String path = c.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (c.getValue() == null) {
+                    entries.remove(path);
+                } else {
+                    entries.put(path, new Entry(false, c.getValue()));
+                }
+            } else {
+                subChanges.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), c.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> sub : subChanges.entrySet()) {
+            Entry old = entries.get(sub.getKey());
+            String oldID = old != null && old.isTree ? old.id : null;
+            String newID = update(store, oldID, sub.getValue(), newTrees, false);
+            if (newID == null) {
+                entries.remove(sub.getKey());
+            } else {
+                entries.put(sub.getKey(), new Entry(true, newID));
+            }
+        }
+
+        if (entries.isEmpty() && !isRoot) {
+            return null;
+        }
+        Tree t = new Tree(entries);
+        newTrees.add(t);
+        return t.id;
+    }
+}
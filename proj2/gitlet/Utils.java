@@ -1,22 +1,29 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
-import java.util.Formatter;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 
 /** Assorted utilities.
@@ -36,25 +43,7 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("improper type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
-        }
+        return Hashing.SHA1.hash(vals);
     }
 
     /** Returns the SHA-1 hash of the concatenation of the strings in
@@ -63,6 +52,25 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of the contents of FILE, reading it in
+     *  blocks rather than all at once.  Throws IllegalArgumentException
+     *  in case of problems. */
+    static String sha1(File file) {
+        return Hashing.SHA1.hash(file);
+    }
+
+    /** Returns the id of an object made of the concatenation of VALS,
+     *  hashed with the algorithm of the repository, see Hashing. */
+    static String hash(Object... vals) {
+        return Hashing.local().hash(vals);
+    }
+
+    /** Returns the id of the contents of FILE, hashed with the algorithm
+     *  of the repository. */
+    static String hash(File file) {
+        return Hashing.local().hash(file);
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -136,6 +144,94 @@ class Utils {
         }
     }
 
+    /** Copy everything in IN to FILE, creating or overwriting it as needed.
+     *  IN is closed afterwards.  Throws IllegalArgumentException in case
+     *  of problems. */
+    static void writeContents(File file, InputStream in) {
+        try (InputStream src = in) {
+            if (file.isDirectory()) {
+                throw
+                    new IllegalArgumentException("cannot overwrite directory");
+            }
+            Files.copy(src, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /* COMPRESSION */
+
+    /** Size of the buffers used when streaming file contents. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Marks a compressed file.  It starts with a NUL byte, so it is
+     *  not mistaken for the text files written before compression
+     *  existed; the last byte is the format version. */
+    static final byte[] COMPRESSED_MAGIC = {0, 'G', 'Z', 1};
+
+    /** Starts the content of a blob stored as a list of chunks, see
+     *  ObjectStore.writeChunked. Any file starting with it is stored as
+     *  chunks, so it can't be taken for a chunk list. */
+    static final byte[] CHUNKED_MAGIC = {0, 'G', 'Z', 2};
+
+    /** Write the contents of IN to FILE in the compressed format:
+     *  COMPRESSED_MAGIC followed by a deflate stream.  Nothing more than
+     *  one buffer of IN is held in memory.  IN is closed afterwards.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void writeCompressed(File file, InputStream in) {
+        try (InputStream src = in;
+             OutputStream out = new BufferedOutputStream(
+                     Files.newOutputStream(file.toPath()), BUFFER_SIZE)) {
+            out.write(COMPRESSED_MAGIC);
+            try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+                src.transferTo(deflater);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return BYTES in the compressed format written by writeCompressed. */
+    static byte[] compress(byte[] bytes) {
+        try {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            stream.write(COMPRESSED_MAGIC);
+            DeflaterOutputStream deflater = new DeflaterOutputStream(stream);
+            deflater.write(bytes);
+            deflater.close();
+            return stream.toByteArray();
+        } catch (IOException excp) {
+            throw error("Internal error compressing object.");
+        }
+    }
+
+    /** Return a stream of the uncompressed contents of STORED, which is
+     *  either in the compressed format or plain bytes written by an older
+     *  version of gitlet. */
+    static InputStream decompress(InputStream stored) {
+        try {
+            PushbackInputStream in =
+                new PushbackInputStream(stored, COMPRESSED_MAGIC.length);
+            byte[] header = in.readNBytes(COMPRESSED_MAGIC.length);
+            if (Arrays.equals(header, COMPRESSED_MAGIC)) {
+                return new InflaterInputStream(in);
+            }
+            in.unread(header);
+            return in;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return the uncompressed contents of STORED, see decompress. */
+    static byte[] decompress(byte[] stored) {
+        try (InputStream in = decompress(new ByteArrayInputStream(stored))) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -152,6 +248,22 @@ class Utils {
         }
     }
 
+    /** Return an object of type T read from BYTES, casting it to
+     *  EXPECTEDCLASS.  Throws IllegalArgumentException in case of problems. */
+    static <T extends Serializable> T deserialize(byte[] bytes,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
@@ -214,6 +326,42 @@ class Utils {
     }
 
 
+    /** Return a String that changes whenever FILE is modified or replaced:
+     *  its file key (the inode), modification time and size, or "" if it
+     *  doesn't exist. Used to tell whether what was loaded from FILE is
+     *  still current. */
+    static String fileStamp(File file) {
+        try {
+            BasicFileAttributes attrs =
+                Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return attrs.fileKey() + " " + attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                + " " + attrs.size();
+        } catch (IOException excp) {
+            return "";
+        }
+    }
+
+    /** Names of the files of tempFileFor: ".[name]-[random digits].tmp" */
+    private static final Pattern TEMP_NAME = Pattern.compile("\\..*-\\d+\\.tmp");
+
+    /** Return a new empty file next to FILE, to be renamed over it once
+     *  written. Every caller gets a file of its own, so two processes
+     *  replacing FILE at once don't write into the same one. */
+    static File tempFileFor(File file) {
+        try {
+            return Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(),
+                    "." + file.getName() + "-", ".tmp").toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return whether NAME is the name of a file of tempFileFor. Branch
+     *  names may end in .tmp, only this exact shape is left out. */
+    static boolean isTempFile(String name) {
+        return TEMP_NAME.matcher(name).matches();
+    }
+
     /* SERIALIZATION UTILITIES */
 
     /** Returns a byte array containing the serialized contents of OBJ. */
@@ -246,4 +394,11 @@ class Utils {
         System.out.println();
     }
 
+    /** End the current command with exit status STATUS. Unlike System.exit
+     *  this only throws, so a daemon running the command keeps running;
+     *  nothing the command has not saved yet is saved. */
+    static void exit(int status) {
+        throw new ExitException(status);
+    }
+
 }
@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static gitlet.Utils.*;
+
+/** Compares add/commit throughput of the old String based blob pipeline
+ *  with the byte based one, on 100 MB of mixed binary and text files.
+ *  Usage, from proj2/testing after make benchmarks:
+ *      java -cp ..:benchmarks gitlet.BlobSpeedTest [MEGABYTES]
+ *
+ *  Both pipelines do what add followed by commit does to every file:
+ *  hash it, copy it to the stage, read the staged copy back and store it
+ *  as a compressed blob. Everything happens in a temporary directory.
+ */
+public class BlobSpeedTest {
+    private static final int FILE_SIZE = 1 << 21;
+
+    public static void main(String[] args) throws IOException {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        File root = Files.createTempDirectory("gitlet-speed").toFile();
+        File work = join(root, "work");
+        File stage = join(root, "stage");
+        work.mkdir();
+        stage.mkdir();
+
+        int n = Math.max(2, (megabytes << 20) / FILE_SIZE);
+        File[] files = generate(work, n);
+        System.out.printf("%d files, %d MB, half binary and half text%n",
+                n, (long) n * FILE_SIZE >> 20);
+
+        ObjectStore before = new ObjectStore(join(root, "before"));
+        long start = System.nanoTime();
+        int corrupted = 0;
+        for (File f : files) {
+            String content = readContentsAsString(f);
+            String id = hash(content);
+            File staged = join(stage, f.getName());
+            writeContents(staged, content);
+            String stagedContent = readContentsAsString(staged);
+            before.write(ObjectStore.BLOB, id,
+                    stagedContent.getBytes(StandardCharsets.UTF_8));
+            if (!Arrays.equals(before.read(ObjectStore.BLOB, id), readContents(f))) {
+                corrupted += 1;
+            }
+        }
+        report("String pipeline", start, n, corrupted);
+
+        ObjectStore after = new ObjectStore(join(root, "after"));
+        start = System.nanoTime();
+        corrupted = 0;
+        for (File f : files) {
+            String id = hash(f);
+            File staged = join(stage, f.getName());
+            writeContents(staged, Files.newInputStream(f.toPath()));
+            after.write(ObjectStore.BLOB, hash(staged), Files.newInputStream(staged.toPath()));
+            if (!Arrays.equals(after.read(ObjectStore.BLOB, id), readContents(f))) {
+                corrupted += 1;
+            }
+        }
+        report("byte pipeline", start, n, corrupted);
+
+        deleteAll(root);
+    }
+
+    /** Write N files of FILE_SIZE bytes into DIR, alternating random
+     *  bytes and lines of text. */
+    private static File[] generate(File dir, int n) {
+        Random random = new Random(61);
+        File[] files = new File[n];
+        for (int i = 0; i < n; i++) {
+            byte[] bytes = new byte[FILE_SIZE];
+            if (i % 2 == 0) {
+                random.nextBytes(bytes);
+            } else {
+                for (int k = 0; k < FILE_SIZE; k++) {
+                    bytes[k] = k % 64 == 63 ? (byte) '\n' : (byte) ('a' + random.nextInt(26));
+                }
+            }
+            files[i] = join(dir, "file" + i);
+            writeContents(files[i], bytes);
+        }
+        return files;
+    }
+
+    private static void report(String name, long start, int n, int corrupted) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double megabytes = (double) n * FILE_SIZE / (1 << 20);
+        System.out.printf("%-16s %7.2f s  %7.1f MB/s  %d of %d files corrupted%n",
+                name, seconds, megabytes / seconds, corrupted, n);
+    }
+
+    private static void deleteAll(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteAll(c);
+            }
+        }
+        f.delete();
+    }
+}
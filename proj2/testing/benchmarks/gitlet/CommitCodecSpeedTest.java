@@ -0,0 +1,87 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/** Compares encode and decode throughput of the header-line commit
+ *  encoding with Java serialization, which commits used to be stored as.
+ *  Usage, from proj2/testing after make benchmarks:
+ *      java -cp ..:benchmarks gitlet.CommitCodecSpeedTest [COMMITS]
+ *
+ *  Both formats encode and decode the same merge commits. Every round is
+ *  run a few times first so the JIT has compiled both paths before they
+ *  are timed. Nothing is written to disk.
+ */
+public class CommitCodecSpeedTest {
+    private static final int WARMUP_ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        List<Commit> commits = generate(n);
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runSerialized(commits, false);
+            runEncoded(commits, false);
+        }
+        runSerialized(commits, true);
+        runEncoded(commits, true);
+    }
+
+    /** Build N commits with a parent id and different messages */
+    private static List<Commit> generate(int n) {
+        List<Commit> commits = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Commit c = Commit.initCommit();
+            c.setMessage("commit number " + i + " of the codec speed test");
+            c.setSecondParentID(sha1(Integer.toString(i)));
+            /* the tree is only hashed in memory, nothing is saved */
+            c.getCommitID();
+            commits.add(c);
+        }
+        return commits;
+    }
+
+    private static void runSerialized(List<Commit> commits, boolean print) {
+        long bytes = 0;
+        long start = System.nanoTime();
+        List<byte[]> encoded = new ArrayList<>(commits.size());
+        for (Commit c : commits) {
+            byte[] b = serialize(c);
+            bytes += b.length;
+            encoded.add(b);
+        }
+        long middle = System.nanoTime();
+        for (byte[] b : encoded) {
+            deserialize(b, Commit.class);
+        }
+        if (print) {
+            report("serialization", commits.size(), bytes, start, middle, System.nanoTime());
+        }
+    }
+
+    private static void runEncoded(List<Commit> commits, boolean print) {
+        long bytes = 0;
+        long start = System.nanoTime();
+        List<byte[]> encoded = new ArrayList<>(commits.size());
+        for (Commit c : commits) {
+            byte[] b = c.encode();
+            bytes += b.length;
+            encoded.add(b);
+        }
+        long middle = System.nanoTime();
+        for (byte[] b : encoded) {
+            Commit.parse(b);
+        }
+        if (print) {
+            report("header lines", commits.size(), bytes, start, middle, System.nanoTime());
+        }
+    }
+
+    private static void report(String name, int n, long bytes,
+                               long start, long middle, long end) {
+        System.out.printf("%-14s %4d bytes/commit  encode %9.0f commits/s  decode %9.0f commits/s%n",
+                name, bytes / n, n / ((middle - start) / 1e9), n / ((end - middle) / 1e9));
+    }
+}
@@ -0,0 +1,141 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Measures hashing throughput in MB/s per core: the old Utils.sha1, which
+ *  looked up a MessageDigest and formatted hex through a Formatter on every
+ *  call, against Hashing, for SHA-1 and SHA-256.
+ *  Usage, from proj2/testing after make benchmarks:
+ *      java -cp ..:benchmarks gitlet.HashSpeedTest [SECONDS PER ROUND]
+ *
+ *  Small inputs are the size of a commit header or a tree line, where the
+ *  per call cost dominates; large ones are file contents. Every round runs
+ *  once untimed first so the JIT has compiled it. The parallel rounds run
+ *  one thread per core and report the throughput divided by the cores,
+ *  which stays flat if hashing scales.
+ */
+public class HashSpeedTest {
+    private static final int[] SIZES = {64, 4 << 10, 1 << 20};
+    private static final int FILE_SIZE = 64 << 20;
+
+    /** One way of hashing a byte array */
+    private interface Hasher {
+        String hash(byte[] bytes);
+    }
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d cores, MB/s per core%n", cores);
+        System.out.printf("%-14s %8s %10s %10s%n", "", "bytes", "1 thread", cores + " threads");
+
+        Random random = new Random(61);
+        for (int size : SIZES) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            run("old sha1", size, data, HashSpeedTest::oldSha1, seconds, cores);
+            run("Hashing sha1", size, data, b -> Hashing.SHA1.hash(b), seconds, cores);
+            run("Hashing sha256", size, data, b -> Hashing.SHA256.hash(b), seconds, cores);
+        }
+
+        File file = File.createTempFile("gitlet-hash", ".bin");
+        file.deleteOnExit();
+        byte[] contents = new byte[FILE_SIZE];
+        random.nextBytes(contents);
+        Files.write(file.toPath(), contents);
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            oldSha1(file);
+            double oldTime = (System.nanoTime() - start) / 1e9;
+            start = System.nanoTime();
+            Hashing.SHA1.hash(file);
+            double newTime = (System.nanoTime() - start) / 1e9;
+            if (round == 1) {
+                System.out.printf("%d MB file: stream %6.0f MB/s, channel %6.0f MB/s%n",
+                        FILE_SIZE >> 20, (FILE_SIZE >> 20) / oldTime, (FILE_SIZE >> 20) / newTime);
+            }
+        }
+    }
+
+    private static void run(String name, int size, byte[] data, Hasher hasher,
+                            double seconds, int cores) throws Exception {
+        rate(data, hasher, seconds / 4, 1);
+        double single = rate(data, hasher, seconds, 1);
+        double parallel = rate(data, hasher, seconds, cores);
+        System.out.printf("%-14s %8d %10.1f %10.1f%n", name, size, single, parallel / cores);
+    }
+
+    /** Return the MB/s of THREADS threads hashing DATA for SECONDS */
+    private static double rate(byte[] data, Hasher hasher, double seconds, int threads)
+            throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        List<Future<Long>> counts = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            counts.add(pool.submit(() -> {
+                long n = 0;
+                while (System.nanoTime() < end) {
+                    for (int i = 0; i < 16; i++) {
+                        hasher.hash(data);
+                    }
+                    n += 16;
+                }
+                return n;
+            }));
+        }
+        long total = 0;
+        for (Future<Long> f : counts) {
+            total += f.get();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+        return total * data.length / elapsed / (1 << 20);
+    }
+
+    /** Utils.sha1 as it was: a new digest and a Formatter per call */
+    private static String oldSha1(byte[] bytes) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(bytes);
+            Formatter result = new Formatter();
+            for (byte b : md.digest()) {
+                result.format("%02x", b);
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Utils.sha1(File) as it was, reading through an InputStream */
+    private static String oldSha1(File file) throws IOException {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[Utils.BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+            }
+            Formatter result = new Formatter();
+            for (byte b : md.digest()) {
+                result.format("%02x", b);
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+}